@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.audit.AuditMessage;
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.audit.payload.metadata.MetadataPayload;
+import co.cask.cdap.proto.codec.AuditMessageTypeAdapter;
+import co.cask.cdap.proto.codec.EntityIdTypeAdapter;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding a metadata change audit message, with the CDAP type adapters and with the streaming decoder of
+ * the consumer, and decoding the compact record the publisher dequeues. The sizes of the JSON message and of the
+ * record are printed in the log of each fork, since the record also replaces the message in the flow queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuditDecodeBenchmark {
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(AuditMessage.class, new AuditMessageTypeAdapter())
+    .registerTypeAdapter(EntityId.class, new EntityIdTypeAdapter())
+    .create();
+
+  private byte[] payload;
+  private byte[] record;
+
+  @Setup
+  public void setUp() {
+    Map<MetadataScope, Metadata> previous = ImmutableMap.of(
+      MetadataScope.SYSTEM, new Metadata(ImmutableMap.of("schema", "{\"type\":\"record\",\"name\":\"purchase\"}",
+                                                         "creation-time", "1490000000000"),
+                                         ImmutableSet.of("batch", "explore")),
+      MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "alice"), ImmutableSet.of("pii", "finance")));
+    Map<MetadataScope, Metadata> additions = ImmutableMap.of(
+      MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "bob"), ImmutableSet.of("audited")));
+    Map<MetadataScope, Metadata> deletions = ImmutableMap.of(
+      MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "alice"), ImmutableSet.of("pii")));
+    AuditMessage message = new AuditMessage(System.currentTimeMillis(), NamespaceId.DEFAULT.dataset("purchases"),
+                                            "user", AuditType.METADATA_CHANGE,
+                                            new MetadataPayload(previous, additions, deletions));
+    payload = GSON.toJson(message).getBytes(StandardCharsets.UTF_8);
+    record = AuditRecordCodec.encode(AuditMessageDecoder.decode(payload));
+    System.out.printf("%nAudit message: %d bytes, queue record: %d bytes%n", payload.length, record.length);
+  }
+
+  @Benchmark
+  public AuditMessage decodeWithTypeAdapters() {
+    return GSON.fromJson(new String(payload, StandardCharsets.UTF_8), AuditMessage.class);
+  }
+
+  @Benchmark
+  public AuditMessageDecoder.Header decodeHeader() {
+    return AuditMessageDecoder.decodeHeader(payload);
+  }
+
+  @Benchmark
+  public AuditRecord decodeRecord() {
+    return AuditMessageDecoder.decode(payload);
+  }
+
+  @Benchmark
+  public byte[] decodeAndEncodeRecord() {
+    return AuditRecordCodec.encode(AuditMessageDecoder.decode(payload));
+  }
+
+  @Benchmark
+  public AuditRecord decodeQueueRecord() throws IOException {
+    return AuditRecordCodec.decode(record);
+  }
+}
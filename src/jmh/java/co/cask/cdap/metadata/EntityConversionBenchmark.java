@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.metadata.entity.UnsupportedEntityException;
+import co.cask.cdap.proto.element.EntityType;
+import co.cask.cdap.proto.id.ApplicationId;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import com.cloudera.nav.sdk.model.MD5IdGenerator;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting a CDAP entity and its metadata changes into a Navigator {@link Entity}, and generating the
+ * Navigator id of the entity, for every supported entity type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EntityConversionBenchmark {
+
+  @Param({ "APPLICATION", "PROGRAM", "DATASET", "STREAM", "ARTIFACT", "STREAM_VIEW" })
+  public EntityType entityType;
+
+  private EntityId entityId;
+  private String entityName;
+  private MetadataDelta delta;
+  private Entity entity;
+
+  @Setup
+  public void setUp() throws UnsupportedEntityException {
+    ApplicationId app = NamespaceId.DEFAULT.app("PurchaseHistory");
+    switch (entityType) {
+      case APPLICATION:
+        entityId = app;
+        break;
+      case PROGRAM:
+        entityId = app.flow("PurchaseFlow");
+        break;
+      case DATASET:
+        entityId = NamespaceId.DEFAULT.dataset("purchases");
+        break;
+      case STREAM:
+        entityId = NamespaceId.DEFAULT.stream("purchaseStream");
+        break;
+      case ARTIFACT:
+        entityId = NamespaceId.DEFAULT.artifact("Purchase", "1.0.0");
+        break;
+      case STREAM_VIEW:
+        entityId = NamespaceId.DEFAULT.stream("purchaseStream").view("purchaseView");
+        break;
+      default:
+        throw new UnsupportedEntityException(entityType);
+    }
+    entityName = entityId.toString();
+    delta = new MetadataDelta();
+    delta.addTags(ImmutableSet.of("audited", "finance"));
+    delta.addProperties(ImmutableMap.of("owner", "bob", "retention", "30d"));
+    delta.deleteTags(ImmutableSet.of("pii"));
+    entity = NavigatorEntities.create(entityId, "CDAP");
+  }
+
+  @Benchmark
+  public Entity convert() throws UnsupportedEntityException {
+    Entity result = NavigatorEntities.create(entityId, "CDAP");
+    NavigatorEntities.applyDelta(result, delta);
+    return result;
+  }
+
+  @Benchmark
+  public String generateId() {
+    return entity.generateId();
+  }
+
+  @Benchmark
+  public String md5IdGenerator() {
+    return MD5IdGenerator.generateIdentity(entityName);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import co.cask.cdap.metadata.entity.UnsupportedEntityException;
+import co.cask.cdap.proto.id.NamespaceId;
+import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.cloudera.nav.sdk.client.writer.ResultSet;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks serializing batches of Navigator entities and sending them through the {@link NavigatorPlugin} to a
+ * {@link NavigatorStubServer}, which isolates the cost of the client from the latency of a real Navigator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NavigatorWriteBenchmark {
+
+  @Param({ "1", "100", "1000" })
+  public int batchSize;
+
+  private NavigatorStubServer server;
+  private NavigatorPlugin navigatorPlugin;
+  private List<Entity> batch;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, UnsupportedEntityException {
+    server = new NavigatorStubServer();
+    server.start();
+    NavigatorConfig navigatorConfig = new NavigatorConfig("localhost", "user", "pass", server.getPort(), true,
+                                                          null, null, null, null, null);
+    navigatorPlugin = NavigatorPlugin.fromConfigMap(NavigatorConfigConverter.convert(navigatorConfig));
+
+    batch = new ArrayList<>(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      MetadataDelta delta = new MetadataDelta();
+      delta.addTags(ImmutableSet.of("audited", "finance"));
+      delta.addProperties(ImmutableMap.of("owner", "bob", "retention", "30d"));
+      Entity entity = NavigatorEntities.create(NamespaceId.DEFAULT.dataset("dataset" + i),
+                                               navigatorConfig.getNamespace());
+      NavigatorEntities.applyDelta(entity, delta);
+      batch.add(entity);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Benchmark
+  public ResultSet write() {
+    return navigatorPlugin.write(batch);
+  }
+}
@@ -18,32 +18,51 @@ package co.cask.cdap.metadata;
 
 import co.cask.cdap.api.annotation.Property;
 import co.cask.cdap.api.annotation.Tick;
-import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.dataset.lib.CloseableIterator;
 import co.cask.cdap.api.dataset.lib.KeyValueTable;
 import co.cask.cdap.api.flow.flowlet.AbstractFlowlet;
+import co.cask.cdap.api.flow.flowlet.Callback;
+import co.cask.cdap.api.flow.flowlet.FailurePolicy;
+import co.cask.cdap.api.flow.flowlet.FailureReason;
 import co.cask.cdap.api.flow.flowlet.FlowletContext;
+import co.cask.cdap.api.flow.flowlet.InputContext;
 import co.cask.cdap.api.flow.flowlet.OutputEmitter;
 import co.cask.cdap.api.messaging.Message;
 import co.cask.cdap.api.messaging.MessageFetcher;
 import co.cask.cdap.api.messaging.TopicNotFoundException;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.metadata.config.AuditLogConfig;
+import com.google.common.base.Objects;
 import com.google.common.base.Stopwatch;
+import com.google.gson.JsonParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
- * Subscribes to TMS messages published by the CDAP Platform that contains the Audit log records.
+ * Subscribes to TMS messages published by the CDAP Platform that contains the Audit log records. Only records that
+ * are relevant to Navigator are emitted, encoded with {@link AuditRecordCodec} and with the id of the entity they
+ * refer to as the partition key for the {@link NavigatorPublisher} instances.
+ * <p>
+ * The offset of the last consumed message is read from the offset store once and then kept in memory. It is written
+ * back at most once per tick, within the transaction of the tick, and reloaded if that transaction fails.
+ * </p>
+ * <p>
+ * Within a tick, the topic is fetched from again right away as long as fetches return full batches, so a backlog is
+ * consumed without waiting for further ticks. Between ticks, polls are scheduled by a {@link PollScheduler}, which
+ * backs off while the topic is idle. Every tick runs in a transaction, even if it skips the poll, so the tick
+ * interval is kept coarse: an idle consumer costs one transaction per second.
+ * </p>
  */
-public final class AuditLogConsumer extends AbstractFlowlet {
+public final class AuditLogConsumer extends AbstractFlowlet implements Callback {
   private static final Logger LOG = LoggerFactory.getLogger(AuditLogConsumer.class);
-  private static final String OFFSET = "navigator.audit.offset";
+  // Interval of the tick; polls are skipped while backing off
+  static final long TICK_DELAY_MILLIS = 1000L;
 
-  // TODO: Add a way to reset the offset
-  private KeyValueTable offsetStore;
-  private OutputEmitter<String> emitter;
+  private AuditOffsetStore offsetStore;
+  private OutputEmitter<byte[]> emitter;
 
   @Property
   private final String offsetDatasetName;
@@ -53,17 +72,38 @@ public final class AuditLogConsumer extends AbstractFlowlet {
   private final String topic;
   @Property
   private final int limit;
+  @Property
+  private final int maxLimit;
+  @Property
+  private final int checkpointInterval;
+  @Property
+  private final long minPollDelayMs;
+  @Property
+  private final long maxPollDelayMs;
 
   private Stopwatch stopwatch;
+  private FetchSizeController fetchSizeController;
   private MessageFetcher messageFetcher;
   private long timeout;
   private boolean emptyIterator;
+  private Metrics metrics;
+
+  // Offset of the last consumed message, cached after the first read from the offset store
+  private String offset;
+  private boolean offsetLoaded;
+  // Number of messages consumed since the offset was last written to the offset store
+  private int uncheckpointed;
+  private PollScheduler pollScheduler;
 
   public AuditLogConsumer(AuditLogConfig auditLogConfig) {
     this.offsetDatasetName = auditLogConfig.getOffsetDataset();
     this.namespace = auditLogConfig.getNamespace();
     this.topic = auditLogConfig.getTopic();
     this.limit = auditLogConfig.getLimit();
+    this.maxLimit = auditLogConfig.getMaxLimit();
+    this.checkpointInterval = auditLogConfig.getCheckpointInterval();
+    this.minPollDelayMs = auditLogConfig.getMinPollDelayMs();
+    this.maxPollDelayMs = auditLogConfig.getMaxPollDelayMs();
   }
 
   @Override
@@ -74,7 +114,8 @@ public final class AuditLogConsumer extends AbstractFlowlet {
   @Override
   public void initialize(FlowletContext context) throws Exception {
     super.initialize(context);
-    offsetStore = context.getDataset(offsetDatasetName);
+    KeyValueTable offsetTable = context.getDataset(offsetDatasetName);
+    offsetStore = new AuditOffsetStore(offsetTable);
     String shortTxTimeout = context.getRuntimeArguments().get("data.tx.timeout");
     if (shortTxTimeout == null) {
       // If custom tx timeout is not used, assume it is 30 secs
@@ -84,41 +125,87 @@ public final class AuditLogConsumer extends AbstractFlowlet {
     // Reduce 10s from the tx timeout
     timeout = Long.parseLong(shortTxTimeout) - 10;
     stopwatch = new Stopwatch();
+    fetchSizeController = new FetchSizeController(limit, maxLimit, TimeUnit.SECONDS.toMillis(timeout));
     emptyIterator = false;
+    offsetLoaded = false;
+    pollScheduler = new PollScheduler(minPollDelayMs, maxPollDelayMs);
     messageFetcher = getContext().getMessageFetcher();
   }
 
-  @Tick(delay = 1L, unit = TimeUnit.SECONDS)
+  @Tick(delay = TICK_DELAY_MILLIS, unit = TimeUnit.MILLISECONDS)
   protected void pollAuditTopic() throws Exception {
-    String newOffset = null;
-    byte[] logOffset = offsetStore.read(OFFSET);
-    String fromOffset = null;
-
-    if (logOffset != null) {
-      fromOffset = Bytes.toString(logOffset);
+    if (!pollScheduler.isDue(System.currentTimeMillis())) {
+      return;
+    }
+    if (!offsetLoaded) {
+      offset = offsetStore.get();
+      offsetLoaded = true;
+      uncheckpointed = 0;
     }
+    String newOffset = null;
+    String fromOffset = offset;
 
     // Keep fetching in batches of 'limit' number of messages until, no messages are left or
     // the stopWatch timeout expires
     stopwatch.reset();
     stopwatch.start();
+    int emitted = 0;
+    int droppedType = 0;
+    int droppedEntity = 0;
+    int droppedInvalid = 0;
+    int topicNotFound = 0;
+    long decodeNanos = 0L;
+    long lastMessageTime = 0L;
+    int consumed = 0;
     do {
       emptyIterator = true;
-      try (CloseableIterator<Message> auditMessages = messageFetcher.fetch(namespace, topic, limit, fromOffset)) {
+      int fetched = 0;
+      long batchStartMillis = stopwatch.elapsedMillis();
+      int fetchLimit = fetchSizeController.getLimit();
+      try (CloseableIterator<Message> auditMessages =
+             AuditOffsetStore.fetch(messageFetcher, namespace, topic, fetchLimit, fromOffset)) {
         while (auditMessages.hasNext()) {
           Message message = auditMessages.next();
           newOffset = message.getId();
-          emitter.emit(message.getPayloadAsString());
           emptyIterator = false;
+          fetched++;
+
+          byte[] payload = message.getPayload();
+          long decodeStartNanos = System.nanoTime();
+          AuditMessageDecoder.Header header;
+          byte[] record;
+          try {
+            header = AuditMessageDecoder.decodeHeader(payload);
+            lastMessageTime = header.getTime();
+            if (!NavigatorPublisher.SUPPORTED_AUDIT_TYPES.contains(header.getType())) {
+              droppedType++;
+              continue;
+            }
+            if (!NavigatorPublisher.SUPPORTED_ENTITY_TYPES.contains(header.getEntityId().getEntityType())) {
+              droppedEntity++;
+              continue;
+            }
+            // Only messages that are forwarded are decoded fully, once, into the compact queue representation
+            record = AuditRecordCodec.encode(AuditMessageDecoder.decode(payload));
+          } catch (JsonParseException e) {
+            // Retrying a malformed message would block the consumer forever
+            LOG.warn("Ignoring malformed audit message with id {}.", message.getId(), e);
+            droppedInvalid++;
+            continue;
+          } finally {
+            decodeNanos += System.nanoTime() - decodeStartNanos;
+          }
+          emitter.emit(record, NavigatorPublisher.PARTITION_KEY, header.getEntityId().toString());
+          emitted++;
         }
       } catch (TopicNotFoundException ex) {
         LOG.warn("Audit Topic {} was not found.", topic, ex);
+        topicNotFound++;
       } finally {
         if (!emptyIterator) {
-          // If some messages were fetched in this loop, update the new offset and
-          // set fromOffset to the last fetched messageId
-          offsetStore.write(OFFSET, newOffset);
+          // If some messages were fetched in this loop, set fromOffset to the last fetched messageId
           fromOffset = newOffset;
+          consumed += fetched;
         }
       }
 
@@ -126,7 +213,54 @@ public final class AuditLogConsumer extends AbstractFlowlet {
       if (emptyIterator) {
         break;
       }
+      long elapsedMillis = stopwatch.elapsedMillis();
+      long lagMillis = lastMessageTime > 0 ? System.currentTimeMillis() - lastMessageTime : 0L;
+      fetchSizeController.update(fetched, elapsedMillis - batchStartMillis, elapsedMillis, lagMillis);
+
+      // A partial batch means that the topic has been drained, so there is no need for another fetch
+      if (fetched < fetchLimit) {
+        break;
+      }
     } while (stopwatch.elapsedTime(TimeUnit.SECONDS) < timeout);
     stopwatch.stop();
+    long pollMillis = stopwatch.elapsedMillis();
+
+    pollScheduler.polled(System.currentTimeMillis(), consumed > 0);
+
+    if (!Objects.equal(offset, fromOffset)) {
+      offset = fromOffset;
+      uncheckpointed += consumed;
+      if (uncheckpointed >= checkpointInterval) {
+        offsetStore.set(offset);
+        uncheckpointed = 0;
+      }
+    }
+
+    metrics.gauge("audit.fetch.limit", fetchSizeController.getLimit());
+    // Without any new message, the consumer has caught up with the audit topic
+    metrics.gauge("audit.lag.ms", lastMessageTime > 0 ? System.currentTimeMillis() - lastMessageTime : 0L);
+    metrics.count("audit.fetched", consumed);
+    // Time spent fetching from TMS, excluding the time spent decoding the fetched messages
+    long decodeMillis = TimeUnit.NANOSECONDS.toMillis(decodeNanos);
+    metrics.count("audit.fetch.time.ms", (int) Math.max(0L, pollMillis - decodeMillis));
+    metrics.count("audit.decode.time.ms", (int) decodeMillis);
+    metrics.count("audit.errors.topic.not.found", topicNotFound);
+    metrics.count("audit.emitted", emitted);
+    metrics.count("audit.dropped.type", droppedType);
+    metrics.count("audit.dropped.entity", droppedEntity);
+    metrics.count("audit.dropped.invalid", droppedInvalid);
+  }
+
+  @Override
+  public void onSuccess(@Nullable Object input, @Nullable InputContext inputContext) {
+    // no-op
+  }
+
+  @Override
+  public FailurePolicy onFailure(@Nullable Object input, @Nullable InputContext inputContext,
+                                 FailureReason reason) {
+    // The transaction of the tick was rolled back, hence the cached offset may be ahead of the stored one
+    offsetLoaded = false;
+    return FailurePolicy.RETRY;
   }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.audit.AuditMessage;
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.codec.EntityIdTypeAdapter;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Decodes serialized {@link AuditMessage}s directly from their UTF-8 encoded bytes with a streaming JSON reader,
+ * without materializing the parts of the message that are not needed.
+ */
+public final class AuditMessageDecoder {
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(EntityId.class, new EntityIdTypeAdapter())
+    .create();
+  private static final Type METADATA_MAP_TYPE = new TypeToken<Map<MetadataScope, Metadata>>() { }.getType();
+
+  /**
+   * Decodes only the type, the entity id and the time of a serialized {@link AuditMessage}. Reading stops as soon as
+   * these fields have been found, so the payload of the message is usually never parsed.
+   *
+   * @param serializedMessage the UTF-8 encoded JSON audit message
+   * @return the decoded {@link Header}, whose type is {@code null} if it is not known to this version of CDAP
+   * @throws JsonParseException if the message is malformed or does not contain a type and an entity id
+   */
+  public static Header decodeHeader(byte[] serializedMessage) {
+    String typeName = null;
+    EntityId entityId = null;
+    Long time = null;
+    try (JsonReader reader = newReader(serializedMessage)) {
+      reader.beginObject();
+      while ((typeName == null || entityId == null || time == null) && reader.hasNext()) {
+        String name = reader.nextName();
+        if ("type".equals(name)) {
+          typeName = reader.nextString();
+        } else if ("entityId".equals(name)) {
+          entityId = GSON.fromJson(reader, EntityId.class);
+        } else if ("time".equals(name)) {
+          time = reader.nextLong();
+        } else {
+          reader.skipValue();
+        }
+      }
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new JsonParseException("Failed to decode audit message", e);
+    }
+
+    if (typeName == null || entityId == null) {
+      throw new JsonParseException("Audit message is missing the type or the entity id");
+    }
+    return new Header(decodeType(typeName), entityId, time == null ? 0L : time);
+  }
+
+  /**
+   * Decodes a serialized {@link AuditMessage} into an {@link AuditRecord}. The metadata additions and deletions are
+   * only decoded for {@link AuditType#METADATA_CHANGE} messages, and the previous metadata of the entity that is part
+   * of the payload is always skipped.
+   *
+   * @param serializedMessage the UTF-8 encoded JSON audit message
+   * @return the decoded {@link AuditRecord}
+   * @throws JsonParseException if the message is malformed or does not contain a type and an entity id
+   */
+  public static AuditRecord decode(byte[] serializedMessage) {
+    AuditType type = null;
+    EntityId entityId = null;
+    long time = 0L;
+    Map<MetadataScope, Metadata> additions = Collections.emptyMap();
+    Map<MetadataScope, Metadata> deletions = Collections.emptyMap();
+    // Only used if the payload appears before the type in the message
+    JsonObject bufferedPayload = null;
+
+    try (JsonReader reader = newReader(serializedMessage)) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        switch (name) {
+          case "type":
+            type = decodeType(reader.nextString());
+            break;
+          case "entityId":
+            entityId = GSON.fromJson(reader, EntityId.class);
+            break;
+          case "time":
+            time = reader.nextLong();
+            break;
+          case "payload":
+            if (type == null) {
+              bufferedPayload = new JsonParser().parse(reader).getAsJsonObject();
+            } else if (type == AuditType.METADATA_CHANGE) {
+              reader.beginObject();
+              while (reader.hasNext()) {
+                String field = reader.nextName();
+                if ("additions".equals(field)) {
+                  additions = decodeMetadata(reader);
+                } else if ("deletions".equals(field)) {
+                  deletions = decodeMetadata(reader);
+                } else {
+                  reader.skipValue();
+                }
+              }
+              reader.endObject();
+            } else {
+              reader.skipValue();
+            }
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      throw new JsonParseException("Failed to decode audit message", e);
+    }
+
+    if (type == null || entityId == null) {
+      throw new JsonParseException("Audit message is missing the type or the entity id");
+    }
+    if (bufferedPayload != null && type == AuditType.METADATA_CHANGE) {
+      additions = decodeMetadata(bufferedPayload.get("additions"));
+      deletions = decodeMetadata(bufferedPayload.get("deletions"));
+    }
+    return new AuditRecord(type, entityId, time, additions, deletions);
+  }
+
+  private static Map<MetadataScope, Metadata> decodeMetadata(JsonReader reader) {
+    Map<MetadataScope, Metadata> metadata = GSON.fromJson(reader, METADATA_MAP_TYPE);
+    return metadata == null ? Collections.<MetadataScope, Metadata>emptyMap() : metadata;
+  }
+
+  private static Map<MetadataScope, Metadata> decodeMetadata(@Nullable JsonElement element) {
+    if (element == null || element.isJsonNull()) {
+      return Collections.emptyMap();
+    }
+    return GSON.fromJson(element, METADATA_MAP_TYPE);
+  }
+
+  private static JsonReader newReader(byte[] serializedMessage) {
+    return new JsonReader(new InputStreamReader(new ByteArrayInputStream(serializedMessage), StandardCharsets.UTF_8));
+  }
+
+  @Nullable
+  private static AuditType decodeType(String type) {
+    try {
+      return AuditType.valueOf(type);
+    } catch (IllegalArgumentException e) {
+      // Audit type introduced by a newer CDAP version
+      return null;
+    }
+  }
+
+  /**
+   * The type, entity id and time of an {@link AuditMessage}.
+   */
+  public static final class Header {
+    private final AuditType type;
+    private final EntityId entityId;
+    private final long time;
+
+    Header(@Nullable AuditType type, EntityId entityId, long time) {
+      this.type = type;
+      this.entityId = entityId;
+      this.time = time;
+    }
+
+    /**
+     * @return type of the message, or {@code null} if the type was introduced by a newer version of CDAP
+     */
+    @Nullable
+    public AuditType getType() {
+      return type;
+    }
+
+    public EntityId getEntityId() {
+      return entityId;
+    }
+
+    /**
+     * @return time in milliseconds at which the audited change happened, or {@code 0} if unknown
+     */
+    public long getTime() {
+      return time;
+    }
+  }
+
+  private AuditMessageDecoder() {
+    // no-op
+  }
+}
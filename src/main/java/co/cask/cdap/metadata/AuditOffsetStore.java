@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.api.dataset.lib.KeyValueTable;
+import co.cask.cdap.api.messaging.Message;
+import co.cask.cdap.api.messaging.MessageFetcher;
+import co.cask.cdap.api.messaging.TopicNotFoundException;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * Stores the position of the audit consumer in the audit topic in a {@link KeyValueTable}. The position is either the
+ * id of the last consumed message, or a publish timestamp from which to consume once the offset has been moved to a
+ * point in time. Use {@link #fetch(MessageFetcher, String, String, int, String)} to fetch from either.
+ */
+public final class AuditOffsetStore {
+  private static final String OFFSET = "navigator.audit.offset";
+  // Message ids are hex strings, hence they never start with this prefix
+  private static final String TIMESTAMP_PREFIX = "ts:";
+
+  private final KeyValueTable table;
+
+  public AuditOffsetStore(KeyValueTable table) {
+    this.table = table;
+  }
+
+  /**
+   * @return the id of the last consumed message, or {@code null} if the topic is to be consumed from the beginning
+   */
+  @Nullable
+  public String get() {
+    byte[] offset = table.read(OFFSET);
+    return offset == null ? null : Bytes.toString(offset);
+  }
+
+  /**
+   * Sets the offset to the given message, so that consumption continues with the message following it.
+   *
+   * @throws IllegalArgumentException if the offset is not a message id
+   */
+  public void set(String offset) {
+    if (!isMessageId(offset)) {
+      throw new IllegalArgumentException(String.format("'%s' is not a valid message id", offset));
+    }
+    table.write(OFFSET, offset);
+  }
+
+  /**
+   * Sets the offset to a point in time, so that consumption continues with the first message published at or after
+   * the given time.
+   *
+   * @param timestamp publish time in milliseconds
+   */
+  public void setTimestamp(long timestamp) {
+    table.write(OFFSET, TIMESTAMP_PREFIX + timestamp);
+  }
+
+  /**
+   * Removes the offset, so that the topic is consumed from the beginning.
+   */
+  public void reset() {
+    table.delete(Bytes.toBytes(OFFSET));
+  }
+
+  /**
+   * @return whether the given string is a message id, i.e. a non-empty string of hex encoded bytes
+   */
+  public static boolean isMessageId(@Nullable String id) {
+    if (id == null || id.isEmpty() || id.length() % 2 != 0) {
+      return false;
+    }
+    for (int i = 0; i < id.length(); i++) {
+      if (Character.digit(id.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Fetches messages following an offset read from this store.
+   *
+   * @param offset the offset, or {@code null} to fetch from the beginning of the topic
+   */
+  public static CloseableIterator<Message> fetch(MessageFetcher messageFetcher, String namespace, String topic,
+                                                 int limit, @Nullable String offset)
+    throws TopicNotFoundException, IOException {
+    if (offset != null && offset.startsWith(TIMESTAMP_PREFIX)) {
+      long timestamp = Long.parseLong(offset.substring(TIMESTAMP_PREFIX.length()));
+      return messageFetcher.fetch(namespace, topic, limit, timestamp);
+    }
+    return messageFetcher.fetch(namespace, topic, limit, offset);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.audit.AuditMessage;
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.common.base.Objects;
+
+import java.util.Map;
+
+/**
+ * The parts of an {@link AuditMessage} that are published to Navigator. For metadata changes, only the additions and
+ * deletions of the payload are kept; the previous metadata of the entity is not needed.
+ */
+public final class AuditRecord {
+  private final AuditType type;
+  private final EntityId entityId;
+  private final long time;
+  private final Map<MetadataScope, Metadata> additions;
+  private final Map<MetadataScope, Metadata> deletions;
+
+  public AuditRecord(AuditType type, EntityId entityId, long time, Map<MetadataScope, Metadata> additions,
+                     Map<MetadataScope, Metadata> deletions) {
+    this.type = type;
+    this.entityId = entityId;
+    this.time = time;
+    this.additions = additions;
+    this.deletions = deletions;
+  }
+
+  public AuditType getType() {
+    return type;
+  }
+
+  public EntityId getEntityId() {
+    return entityId;
+  }
+
+  /**
+   * @return time in milliseconds at which the audited change happened
+   */
+  public long getTime() {
+    return time;
+  }
+
+  public Map<MetadataScope, Metadata> getAdditions() {
+    return additions;
+  }
+
+  public Map<MetadataScope, Metadata> getDeletions() {
+    return deletions;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    AuditRecord that = (AuditRecord) o;
+    return time == that.time &&
+      type == that.type &&
+      Objects.equal(entityId, that.entityId) &&
+      Objects.equal(additions, that.additions) &&
+      Objects.equal(deletions, that.deletions);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(type, entityId, time, additions, deletions);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("type", type)
+      .add("entityId", entityId)
+      .add("time", time)
+      .add("additions", additions)
+      .add("deletions", deletions)
+      .toString();
+  }
+}
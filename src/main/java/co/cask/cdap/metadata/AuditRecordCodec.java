@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary encoding of {@link AuditRecord}s, used as the flow queue element between the
+ * {@link AuditLogConsumer} and the {@link NavigatorPublisher}. Strings are written as a variable length size
+ * followed by their UTF-8 bytes, and enums by their name.
+ */
+public final class AuditRecordCodec {
+  private static final int VERSION = 1;
+
+  /**
+   * Encodes the given {@link AuditRecord}.
+   */
+  public static byte[] encode(AuditRecord record) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream output = new DataOutputStream(bytes);
+    try {
+      output.writeByte(VERSION);
+      writeString(output, record.getType().name());
+      output.writeLong(record.getTime());
+      writeString(output, record.getEntityId().toString());
+      writeMetadata(output, record.getAdditions());
+      writeMetadata(output, record.getDeletions());
+      output.flush();
+    } catch (IOException e) {
+      // Cannot happen when writing to a byte array
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes an {@link AuditRecord} encoded with {@link #encode(AuditRecord)}.
+   *
+   * @throws IOException if the given bytes are not a valid encoded {@link AuditRecord}
+   */
+  public static AuditRecord decode(byte[] encoded) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+    int version = input.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported audit record version " + version);
+    }
+    try {
+      AuditType type = AuditType.valueOf(readString(input));
+      long time = input.readLong();
+      EntityId entityId = EntityId.fromString(readString(input));
+      Map<MetadataScope, Metadata> additions = readMetadata(input);
+      Map<MetadataScope, Metadata> deletions = readMetadata(input);
+      return new AuditRecord(type, entityId, time, additions, deletions);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid audit record", e);
+    }
+  }
+
+  private static void writeMetadata(DataOutput output, Map<MetadataScope, Metadata> metadata) throws IOException {
+    writeVarInt(output, metadata.size());
+    for (Map.Entry<MetadataScope, Metadata> entry : metadata.entrySet()) {
+      writeString(output, entry.getKey().name());
+      Set<String> tags = entry.getValue().getTags();
+      writeVarInt(output, tags.size());
+      for (String tag : tags) {
+        writeString(output, tag);
+      }
+      Map<String, String> properties = entry.getValue().getProperties();
+      writeVarInt(output, properties.size());
+      for (Map.Entry<String, String> property : properties.entrySet()) {
+        writeString(output, property.getKey());
+        writeString(output, property.getValue());
+      }
+    }
+  }
+
+  private static Map<MetadataScope, Metadata> readMetadata(DataInput input) throws IOException {
+    Map<MetadataScope, Metadata> metadata = new EnumMap<>(MetadataScope.class);
+    int scopes = readVarInt(input);
+    for (int i = 0; i < scopes; i++) {
+      MetadataScope scope = MetadataScope.valueOf(readString(input));
+      int tagCount = readVarInt(input);
+      Set<String> tags = new HashSet<>(tagCount * 2);
+      for (int j = 0; j < tagCount; j++) {
+        tags.add(readString(input));
+      }
+      int propertyCount = readVarInt(input);
+      Map<String, String> properties = new HashMap<>(propertyCount * 2);
+      for (int j = 0; j < propertyCount; j++) {
+        properties.put(readString(input), readString(input));
+      }
+      metadata.put(scope, new Metadata(properties, tags));
+    }
+    return metadata;
+  }
+
+  private static void writeString(DataOutput output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(output, bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInput input) throws IOException {
+    byte[] bytes = new byte[readVarInt(input)];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeVarInt(DataOutput output, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  private static int readVarInt(DataInput input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      byte b = input.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          throw new IOException("Negative length " + value);
+        }
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+  private AuditRecordCodec() {
+    // no-op
+  }
+}
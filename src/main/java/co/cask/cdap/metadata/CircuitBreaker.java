@@ -0,0 +1,155 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker that stops writes to Navigator while it is failing. The outcomes of the last {@code windowSize}
+ * writes are tracked, and once the share of failures among them reaches the failure rate threshold the circuit opens
+ * and no writes are permitted for {@code openMillis}. After that a single trial write is permitted: if it succeeds
+ * the circuit closes again, otherwise it stays open for another {@code openMillis}.
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public final class CircuitBreaker {
+
+  /**
+   * State of the circuit.
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final double failureRateThreshold;
+  private final boolean[] outcomes;
+  private final long openNanos;
+  private final Ticker ticker;
+  private State state = State.CLOSED;
+  private int recorded;
+  private int next;
+  private int failures;
+  private long openedAt;
+  private boolean trialInProgress;
+
+  /**
+   * @param failureRateThreshold share of failed writes, between 0 and 1, at which the circuit opens
+   * @param windowSize number of most recent writes considered
+   * @param openMillis time the circuit stays open before a trial write is permitted
+   */
+  public CircuitBreaker(double failureRateThreshold, int windowSize, long openMillis) {
+    this(failureRateThreshold, windowSize, openMillis, Ticker.systemTicker());
+  }
+
+  CircuitBreaker(double failureRateThreshold, int windowSize, long openMillis, Ticker ticker) {
+    this.failureRateThreshold = failureRateThreshold;
+    this.outcomes = new boolean[Math.max(1, windowSize)];
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.ticker = ticker;
+  }
+
+  /**
+   * @return whether a write may be made now. If the circuit is half open, only the first caller is permitted.
+   */
+  public synchronized boolean allowRequest() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (ticker.read() - openedAt < openNanos) {
+          return false;
+        }
+        state = State.HALF_OPEN;
+        trialInProgress = true;
+        return true;
+      default:
+        if (trialInProgress) {
+          return false;
+        }
+        trialInProgress = true;
+        return true;
+    }
+  }
+
+  /**
+   * Records a successful write.
+   */
+  public synchronized void recordSuccess() {
+    if (state == State.HALF_OPEN) {
+      reset();
+      state = State.CLOSED;
+      return;
+    }
+    record(false);
+  }
+
+  /**
+   * Records a failed write.
+   */
+  public synchronized void recordFailure() {
+    if (state == State.HALF_OPEN) {
+      open();
+      return;
+    }
+    record(true);
+    if (state == State.CLOSED && recorded == outcomes.length && failures >= failureRateThreshold * recorded) {
+      open();
+    }
+  }
+
+  /**
+   * @return whether writes are currently suspended. Unlike {@link #allowRequest()}, this does not start a trial write.
+   */
+  public synchronized boolean isOpen() {
+    return state == State.OPEN && ticker.read() - openedAt < openNanos;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void record(boolean failure) {
+    if (recorded == outcomes.length) {
+      if (outcomes[next]) {
+        failures--;
+      }
+    } else {
+      recorded++;
+    }
+    outcomes[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % outcomes.length;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAt = ticker.read();
+    trialInProgress = false;
+    reset();
+  }
+
+  private void reset() {
+    recorded = 0;
+    next = 0;
+    failures = 0;
+    trialInProgress = false;
+  }
+}
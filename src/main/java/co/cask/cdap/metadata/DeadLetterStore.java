@@ -0,0 +1,203 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Put;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.proto.id.EntityId;
+import com.google.common.base.Objects;
+import com.google.gson.Gson;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Stores the metadata changes of entities that Navigator rejected in a {@link Table}, so that they neither block the
+ * processing of later audit messages nor get lost. There is one row per CDAP entity. Changes rejected again before
+ * they are replayed are merged into the stored changes, so that replaying a row applies them in order. Changes that
+ * are overridden by later changes written to Navigator are removed with {@link #supersede}, so that a replay never
+ * reverts newer metadata.
+ */
+public final class DeadLetterStore {
+  private static final Gson GSON = new Gson();
+  private static final byte[] CHANGES = Bytes.toBytes("changes");
+  private static final byte[] ERRORS = Bytes.toBytes("errors");
+  private static final byte[] TIME = Bytes.toBytes("time");
+  private static final byte[] REJECTIONS = Bytes.toBytes("rejections");
+
+  private final Table table;
+
+  public DeadLetterStore(Table table) {
+    this.table = table;
+  }
+
+  /**
+   * Records metadata changes of an entity that Navigator rejected.
+   *
+   * @param entityId the CDAP entity
+   * @param delta the rejected changes
+   * @param errors the errors reported by Navigator
+   * @param time time of the rejection in milliseconds
+   */
+  public void add(EntityId entityId, MetadataDelta delta, String errors, long time) {
+    byte[] rowKey = Bytes.toBytes(entityId.toString());
+    DeadLetter existing = toDeadLetter(entityId, table.get(rowKey));
+    MetadataDelta changes = delta;
+    int rejections = 1;
+    if (existing != null) {
+      changes = existing.getChanges();
+      changes.merge(delta);
+      rejections += existing.getRejections();
+    }
+    table.put(new Put(rowKey)
+                .add(CHANGES, GSON.toJson(changes))
+                .add(ERRORS, errors)
+                .add(TIME, time)
+                .add(REJECTIONS, rejections));
+  }
+
+  /**
+   * @return the stored changes of the entity, or {@code null} if there are none
+   */
+  @Nullable
+  public DeadLetter get(EntityId entityId) {
+    return toDeadLetter(entityId, table.get(Bytes.toBytes(entityId.toString())));
+  }
+
+  /**
+   * @param limit maximum number of entries to return
+   * @return stored changes ordered by entity id
+   */
+  public List<DeadLetter> list(int limit) {
+    List<DeadLetter> deadLetters = new ArrayList<>();
+    try (Scanner scanner = table.scan(null, null)) {
+      Row row;
+      while (deadLetters.size() < limit && (row = scanner.next()) != null) {
+        deadLetters.add(toDeadLetter(EntityId.fromString(Bytes.toString(row.getRow())), row));
+      }
+    }
+    return deadLetters;
+  }
+
+  /**
+   * Removes the stored changes of an entity that are overridden by later changes written to Navigator, i.e. the
+   * changes of all tags and properties that the later changes add or delete.
+   *
+   * @param entityId the CDAP entity
+   * @param written the changes written to Navigator after the stored ones were rejected
+   * @return {@code false} if there are no stored changes of the entity
+   */
+  public boolean supersede(EntityId entityId, MetadataDelta written) {
+    byte[] rowKey = Bytes.toBytes(entityId.toString());
+    Row row = table.get(rowKey);
+    if (row.isEmpty()) {
+      return false;
+    }
+    MetadataDelta changes = GSON.fromJson(row.getString(CHANGES), MetadataDelta.class);
+    Set<String> tags = new HashSet<>(written.getAddedTags());
+    tags.addAll(written.getDeletedTags());
+    Set<String> keys = new HashSet<>(written.getAddedProperties().keySet());
+    keys.addAll(written.getDeletedProperties());
+    changes.getAddedTags().removeAll(tags);
+    changes.getDeletedTags().removeAll(tags);
+    changes.getAddedProperties().keySet().removeAll(keys);
+    changes.getDeletedProperties().removeAll(keys);
+    if (changes.isEmpty()) {
+      table.delete(rowKey);
+    } else {
+      table.put(new Put(rowKey).add(CHANGES, GSON.toJson(changes)));
+    }
+    return true;
+  }
+
+  public void remove(EntityId entityId) {
+    table.delete(Bytes.toBytes(entityId.toString()));
+  }
+
+  @Nullable
+  private static DeadLetter toDeadLetter(EntityId entityId, Row row) {
+    if (row.isEmpty()) {
+      return null;
+    }
+    return new DeadLetter(entityId, GSON.fromJson(row.getString(CHANGES), MetadataDelta.class),
+                          row.getString(ERRORS), row.getLong(TIME, 0L), row.getInt(REJECTIONS, 1));
+  }
+
+  /**
+   * Metadata changes of an entity that Navigator rejected.
+   */
+  public static final class DeadLetter {
+    private final String entityId;
+    private final MetadataDelta changes;
+    private final String errors;
+    private final long time;
+    private final int rejections;
+
+    DeadLetter(EntityId entityId, MetadataDelta changes, String errors, long time, int rejections) {
+      this.entityId = entityId.toString();
+      this.changes = changes;
+      this.errors = errors;
+      this.time = time;
+      this.rejections = rejections;
+    }
+
+    public EntityId getEntityId() {
+      return EntityId.fromString(entityId);
+    }
+
+    public MetadataDelta getChanges() {
+      return changes;
+    }
+
+    /**
+     * @return errors reported by Navigator for the last rejection
+     */
+    public String getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return time of the last rejection in milliseconds
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * @return number of times changes of the entity were rejected
+     */
+    public int getRejections() {
+      return rejections;
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+        .add("entityId", entityId)
+        .add("changes", changes)
+        .add("errors", errors)
+        .add("time", time)
+        .add("rejections", rejections)
+        .toString();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+/**
+ * Adapts the number of audit messages fetched from TMS in a single call. The limit doubles, up to a maximum, while
+ * the consumer lags behind and full batches are processed well within the transaction budget of a tick, and is
+ * halved, down to a minimum, once a tick gets close to its transaction deadline. Once the consumer has caught up,
+ * the limit gradually returns to its initial value.
+ */
+public final class FetchSizeController {
+  private static final int MIN_LIMIT = 10;
+  // Consumer is considered to lag behind if the last fetched audit message is older than this
+  private static final long LAG_THRESHOLD_MILLIS = 10000L;
+
+  private final int initialLimit;
+  private final int maxLimit;
+  private final long budgetMillis;
+  private int limit;
+
+  /**
+   * @param initialLimit the limit to start with
+   * @param maxLimit the maximum limit
+   * @param budgetMillis time available for fetching in a single transaction
+   */
+  public FetchSizeController(int initialLimit, int maxLimit, long budgetMillis) {
+    this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+    this.budgetMillis = budgetMillis;
+    this.initialLimit = Math.min(Math.max(MIN_LIMIT, initialLimit), this.maxLimit);
+    this.limit = this.initialLimit;
+  }
+
+  /**
+   * @return the number of messages to fetch in the next call
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * Updates the limit after a batch of messages has been fetched and processed.
+   *
+   * @param fetched number of messages returned by the fetch
+   * @param batchMillis time taken to fetch and process the batch
+   * @param elapsedMillis time elapsed since the start of the transaction
+   * @param lagMillis age of the last fetched message
+   */
+  public void update(int fetched, long batchMillis, long elapsedMillis, long lagMillis) {
+    if (elapsedMillis + batchMillis >= budgetMillis * 3 / 4) {
+      // Another batch of this size would get too close to the transaction timeout
+      limit = Math.max(MIN_LIMIT, limit / 2);
+    } else if (fetched >= limit && lagMillis > LAG_THRESHOLD_MILLIS
+      && elapsedMillis + 2 * batchMillis < budgetMillis / 2) {
+      limit = Math.min(maxLimit, limit * 2);
+    } else if (fetched < limit / 2 && lagMillis <= LAG_THRESHOLD_MILLIS && limit > initialLimit) {
+      limit = Math.max(initialLimit, limit / 2);
+    }
+  }
+}
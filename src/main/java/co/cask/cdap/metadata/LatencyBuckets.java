@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+/**
+ * Names of the counters of a latency histogram. CDAP metrics have no histogram type, so a latency is recorded by
+ * incrementing the counter of the bucket it falls into, e.g. {@code navigator.write.latency.le250ms}. The names are
+ * created once, so that recording a latency does not allocate.
+ */
+public final class LatencyBuckets {
+  private static final long[] BOUNDS_MILLIS = { 10L, 50L, 100L, 250L, 500L, 1000L, 2500L, 5000L, 10000L };
+
+  private final String[] names;
+
+  /**
+   * @param prefix prefix of the counter names
+   */
+  public LatencyBuckets(String prefix) {
+    names = new String[BOUNDS_MILLIS.length + 1];
+    for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+      names[i] = prefix + ".le" + BOUNDS_MILLIS[i] + "ms";
+    }
+    names[BOUNDS_MILLIS.length] = prefix + ".gt" + BOUNDS_MILLIS[BOUNDS_MILLIS.length - 1] + "ms";
+  }
+
+  /**
+   * @return name of the counter of the bucket the given latency falls into
+   */
+  public String getName(long millis) {
+    for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+      if (millis <= BOUNDS_MILLIS[i]) {
+        return names[i];
+      }
+    }
+    return names[BOUNDS_MILLIS.length];
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.metadata.entity.NavigatorClientWriteException;
+import co.cask.cdap.metadata.entity.UnsupportedEntityException;
+import co.cask.cdap.proto.id.EntityId;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Writes coalesced metadata changes of CDAP entities to Navigator through a {@link NavigatorBatchWriter}, skipping
+ * the changes that the {@link PushedStateCache} knows to be reflected in Navigator already. A write is done in two
+ * steps, so that callers can handle a failed write and access the dead letter dataset within a transaction:
+ * {@link #write} sends the changes to Navigator, and {@link #complete} stores the rejected changes in the
+ * {@link DeadLetterStore} and records the written ones in the cache.
+ * <p>
+ * Stored rejected changes that are overridden by later changes are removed, and the state of entities with stored
+ * rejected changes is not cached, since a replay of these changes may modify the entity in Navigator at any time.
+ * Other writers, such as other publisher instances or the resync worker, store rejected changes as well, so the
+ * dead letter dataset is looked up for every written entity rather than tracked in memory.
+ * </p>
+ * This class is not thread safe.
+ */
+public final class MetadataChangeWriter {
+  private static final Logger LOG = LoggerFactory.getLogger(MetadataChangeWriter.class);
+
+  private final NavigatorBatchWriter batchWriter;
+  private final PushedStateCache pushedStateCache;
+  private final String namespace;
+  private final Metrics metrics;
+
+  /**
+   * @param batchWriter writer to send the changes to Navigator with
+   * @param pushedStateCache cache of the state written to Navigator, owned by this writer
+   * @param namespace Navigator namespace of the entities
+   * @param metrics metrics to count suppressed and rejected writes in
+   */
+  public MetadataChangeWriter(NavigatorBatchWriter batchWriter, PushedStateCache pushedStateCache, String namespace,
+                              Metrics metrics) {
+    this.batchWriter = batchWriter;
+    this.pushedStateCache = pushedStateCache;
+    this.namespace = namespace;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Writes the changes of entities to Navigator. The given deltas are trimmed to the changes actually written.
+   *
+   * @return the outcome of the write, to be passed to {@link #complete}
+   * @throws NavigatorClientWriteException if the changes could not be written within the retry policy
+   */
+  public Result write(Map<EntityId, MetadataDelta> deltas) throws NavigatorClientWriteException, InterruptedException {
+    // Navigator client does not differentiate between user and system tags/properties, so the coalescer folds the
+    // changes of all scopes into a single delta and each entity is written at most once.
+    Map<String, MetadataDelta> written = new HashMap<>();
+    Map<String, EntityId> entityIds = new HashMap<>();
+    int suppressed = 0;
+    for (Map.Entry<EntityId, MetadataDelta> entry : deltas.entrySet()) {
+      EntityId entityId = entry.getKey();
+      MetadataDelta delta = entry.getValue();
+      Entity entity;
+      try {
+        entity = NavigatorEntities.create(entityId, namespace);
+      } catch (UnsupportedEntityException ex) {
+        LOG.warn("EntityType {} of Entity {} not supported. Ignoring this record.", entityId.getEntityType(), entityId);
+        continue;
+      }
+      String id = entity.generateId();
+      // Skip changes that are already reflected in Navigator
+      if (pushedStateCache.trim(id, delta)) {
+        suppressed++;
+        continue;
+      }
+      NavigatorEntities.applyDelta(entity, delta);
+      batchWriter.add(entity, delta.getSizeBytes());
+      written.put(id, delta);
+      entityIds.put(id, entityId);
+    }
+    metrics.count("navigator.writes.suppressed", suppressed);
+    return new Result(batchWriter.flush(), written, entityIds, suppressed);
+  }
+
+  /**
+   * @return whether {@link #complete} needs access to the dead letter dataset for the given outcome
+   */
+  public boolean needsDeadLetterStore(Result result) {
+    // Every entity sent to Navigator may have rejected changes stored by any writer
+    return !result.entityIds.isEmpty();
+  }
+
+  /**
+   * Stores the rejected changes of a write in the dead letter dataset and records the written ones in the cache.
+   *
+   * @param deadLetterStore the dead letter dataset, may only be {@code null} if {@link #needsDeadLetterStore} is
+   *                        {@code false} for the outcome
+   */
+  public void complete(Result result, @Nullable DeadLetterStore deadLetterStore) {
+    long now = System.currentTimeMillis();
+    for (RejectedWrite rejectedWrite : result.rejected) {
+      // Retrying would block the processing of later changes, so set the changes aside in the dead letter store
+      String id = rejectedWrite.getEntity().generateId();
+      EntityId entityId = result.entityIds.get(id);
+      MetadataDelta changes = result.written.remove(id);
+      LOG.warn("Navigator rejected metadata changes {} of entity {}: {}", changes, entityId,
+               rejectedWrite.getErrors());
+      deadLetterStore.add(entityId, changes, rejectedWrite.getErrors(), now);
+      pushedStateCache.invalidate(id);
+    }
+    for (Map.Entry<String, MetadataDelta> entry : result.written.entrySet()) {
+      EntityId entityId = result.entityIds.get(entry.getKey());
+      // A replay of the rejected changes must not revert these changes, and may change the entity in Navigator at any
+      // time, so its state is not cached until the rejected changes are gone
+      if (deadLetterStore.supersede(entityId, entry.getValue())) {
+        pushedStateCache.invalidate(entry.getKey());
+        continue;
+      }
+      pushedStateCache.update(entry.getKey(), entry.getValue());
+    }
+    metrics.count("navigator.writes.rejected", result.rejected.size());
+  }
+
+  /**
+   * Stores changes that could not be written to Navigator within the retry policy in the dead letter dataset, so that
+   * they can be replayed like rejected changes instead of blocking the processing of later changes.
+   *
+   * @param deltas the changes passed to {@link #write}
+   * @param errors the cause of the failed write
+   */
+  public void deadLetter(Map<EntityId, MetadataDelta> deltas, String errors, DeadLetterStore deadLetterStore) {
+    long now = System.currentTimeMillis();
+    int count = 0;
+    for (Map.Entry<EntityId, MetadataDelta> entry : deltas.entrySet()) {
+      Entity entity;
+      try {
+        entity = NavigatorEntities.create(entry.getKey(), namespace);
+      } catch (UnsupportedEntityException ex) {
+        // Never written to Navigator
+        continue;
+      }
+      // Some of the changes may have been written, but Navigator does not tell which
+      pushedStateCache.invalidate(entity.generateId());
+      if (!entry.getValue().isEmpty()) {
+        deadLetterStore.add(entry.getKey(), entry.getValue(), errors, now);
+        count++;
+      }
+    }
+    metrics.count("navigator.writes.failed", count);
+  }
+
+  /**
+   * Outcome of a write to Navigator.
+   */
+  public static final class Result {
+    private final List<RejectedWrite> rejected;
+    private final Map<String, MetadataDelta> written;
+    private final Map<String, EntityId> entityIds;
+    private final int suppressed;
+
+    private Result(List<RejectedWrite> rejected, Map<String, MetadataDelta> written, Map<String, EntityId> entityIds,
+                   int suppressed) {
+      this.rejected = rejected;
+      this.written = written;
+      this.entityIds = entityIds;
+      this.suppressed = suppressed;
+    }
+
+    /**
+     * @return number of entities sent to Navigator
+     */
+    public int getEntities() {
+      return entityIds.size();
+    }
+
+    /**
+     * @return number of entities Navigator rejected
+     */
+    public int getRejected() {
+      return rejected.size();
+    }
+
+    /**
+     * @return number of entities whose changes were all reflected in Navigator already
+     */
+    public int getSuppressed() {
+      return suppressed;
+    }
+  }
+}
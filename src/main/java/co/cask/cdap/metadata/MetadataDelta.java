@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.metadata.Metadata;
+import com.google.common.base.Objects;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Net change of tags and properties resulting from one or more successive metadata changes. A later change always
+ * overrides an earlier one, so an addition followed by a deletion of the same tag or property cancels the pending
+ * addition and leaves only the deletion. The collections returned by the getters are the live state of the delta.
+ */
+public final class MetadataDelta {
+  private final Set<String> addedTags = new LinkedHashSet<>();
+  private final Set<String> deletedTags = new LinkedHashSet<>();
+  private final Map<String, String> addedProperties = new LinkedHashMap<>();
+  private final Set<String> deletedProperties = new LinkedHashSet<>();
+
+  /**
+   * Merges a single metadata change into this delta. Deletions are applied before additions, since CDAP reports an
+   * updated property value as a deletion of the old value together with an addition of the new one.
+   *
+   * @param additions metadata added by the change
+   * @param deletions metadata deleted by the change
+   */
+  public void merge(@Nullable Metadata additions, @Nullable Metadata deletions) {
+    if (deletions != null) {
+      deleteTags(deletions.getTags());
+      deleteProperties(deletions.getProperties().keySet());
+    }
+    if (additions != null) {
+      addTags(additions.getTags());
+      addProperties(additions.getProperties());
+    }
+  }
+
+  /**
+   * Merges a later delta into this delta.
+   *
+   * @param delta the delta to merge
+   */
+  public void merge(MetadataDelta delta) {
+    deleteTags(delta.getDeletedTags());
+    deleteProperties(delta.getDeletedProperties());
+    addTags(delta.getAddedTags());
+    addProperties(delta.getAddedProperties());
+  }
+
+  public void addTags(Collection<String> tags) {
+    for (String tag : tags) {
+      deletedTags.remove(tag);
+      addedTags.add(tag);
+    }
+  }
+
+  public void deleteTags(Collection<String> tags) {
+    for (String tag : tags) {
+      addedTags.remove(tag);
+      deletedTags.add(tag);
+    }
+  }
+
+  public void addProperties(Map<String, String> properties) {
+    for (Map.Entry<String, String> property : properties.entrySet()) {
+      deletedProperties.remove(property.getKey());
+      addedProperties.put(property.getKey(), property.getValue());
+    }
+  }
+
+  public void deleteProperties(Collection<String> keys) {
+    for (String key : keys) {
+      addedProperties.remove(key);
+      deletedProperties.add(key);
+    }
+  }
+
+  public Set<String> getAddedTags() {
+    return addedTags;
+  }
+
+  public Set<String> getDeletedTags() {
+    return deletedTags;
+  }
+
+  public Map<String, String> getAddedProperties() {
+    return addedProperties;
+  }
+
+  public Set<String> getDeletedProperties() {
+    return deletedProperties;
+  }
+
+  public boolean isEmpty() {
+    return addedTags.isEmpty() && deletedTags.isEmpty() && addedProperties.isEmpty() && deletedProperties.isEmpty();
+  }
+
+  /**
+   * @return approximate size of this delta in bytes, used to bound the size of Navigator writes
+   */
+  public long getSizeBytes() {
+    long size = 0;
+    for (String tag : addedTags) {
+      size += tag.length();
+    }
+    for (String tag : deletedTags) {
+      size += tag.length();
+    }
+    for (Map.Entry<String, String> property : addedProperties.entrySet()) {
+      size += property.getKey().length() + property.getValue().length();
+    }
+    for (String key : deletedProperties) {
+      size += key.length();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("addedTags", addedTags)
+      .add("deletedTags", deletedTags)
+      .add("addedProperties", addedProperties)
+      .add("deletedProperties", deletedProperties)
+      .toString();
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Coalesces successive metadata changes of the same {@link EntityId} into a single net {@link MetadataDelta}, so that
+ * an entity is written to Navigator at most once for a window of changes. Navigator does not distinguish between
+ * {@link MetadataScope}s, hence the changes of all scopes are folded into the same delta. Entities are returned in the
+ * order in which they were first changed.
+ */
+public final class MetadataDeltaCoalescer {
+  private final Map<EntityId, MetadataDelta> deltas = new LinkedHashMap<>();
+
+  /**
+   * Merges the change described by an {@link AuditRecord} into the pending delta of its entity. Deletions and
+   * creations of entities are recorded with {@link #setDeleted(EntityId, boolean)}, other audit types are ignored.
+   */
+  public void add(AuditRecord record) {
+    switch (record.getType()) {
+      case METADATA_CHANGE:
+        add(record.getEntityId(), record.getAdditions(), record.getDeletions());
+        break;
+      case CREATE:
+        // Clear the deletion flag of an entity that is created again
+        setDeleted(record.getEntityId(), false);
+        break;
+      case DELETE:
+        setDeleted(record.getEntityId(), true);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Merges the additions and deletions of a metadata change of the given entity into its pending delta. The deletions
+   * of all scopes are applied before the additions of any scope, so that a value that is replaced in one scope is
+   * not removed by the deletion of the old value in another.
+   */
+  public void add(EntityId entityId, Map<MetadataScope, Metadata> additions,
+                  Map<MetadataScope, Metadata> deletions) {
+    if (additions.isEmpty() && deletions.isEmpty()) {
+      return;
+    }
+    MetadataDelta delta = getDelta(entityId);
+    for (Metadata scopeDeletions : deletions.values()) {
+      delta.merge(null, scopeDeletions);
+    }
+    for (Metadata scopeAdditions : additions.values()) {
+      delta.merge(scopeAdditions, null);
+    }
+  }
+
+  /**
+   * Records the deletion or the (re)creation of the given entity as a change of the
+   * {@link NavigatorEntities#DELETED_PROPERTY} property.
+   */
+  public void setDeleted(EntityId entityId, boolean deleted) {
+    MetadataDelta delta = getDelta(entityId);
+    if (deleted) {
+      delta.addProperties(ImmutableMap.of(NavigatorEntities.DELETED_PROPERTY, Boolean.TRUE.toString()));
+    } else {
+      delta.deleteProperties(ImmutableSet.of(NavigatorEntities.DELETED_PROPERTY));
+    }
+  }
+
+  /**
+   * @return the number of entities with pending deltas
+   */
+  public int size() {
+    return deltas.size();
+  }
+
+  /**
+   * Returns all pending deltas, keyed by entity, and resets this coalescer. Deltas without any change are omitted.
+   */
+  public Map<EntityId, MetadataDelta> drain() {
+    Map<EntityId, MetadataDelta> result = new LinkedHashMap<>();
+    for (Map.Entry<EntityId, MetadataDelta> entry : deltas.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+    }
+    deltas.clear();
+    return result;
+  }
+
+  private MetadataDelta getDelta(EntityId entityId) {
+    MetadataDelta delta = deltas.get(entityId);
+    if (delta == null) {
+      delta = new MetadataDelta();
+      deltas.put(entityId, delta);
+    }
+    return delta;
+  }
+}
@@ -21,7 +21,8 @@ import co.cask.cdap.metadata.config.NavigatorAppConfig;
 
 /**
  * Metadata Flow that contains two flowlets - metadataConsumer subscribes to Metadata Kafka messages and forwards it to
- * navigatorPublisher flowlet that writes that metadata info to Navigator.
+ * navigatorPublisher flowlet that writes that metadata info to Navigator. Messages are hash partitioned on the entity
+ * id across the navigatorPublisher instances, which preserves the order of changes of each entity.
  */
 public final class MetadataFlow extends AbstractFlow {
   public static final String FLOW_NAME = "MetadataFlow";
@@ -36,7 +37,8 @@ public final class MetadataFlow extends AbstractFlow {
     setName(FLOW_NAME);
     setDescription("Flow that subscribes to Metadata changes and propagates the same to Navigator");
     addFlowlet("auditLogConsumer", new AuditLogConsumer(navigatorAppConfig.getAuditLogConfig()));
-    addFlowlet("navigatorPublisher", new NavigatorPublisher(navigatorAppConfig.getNavigatorConfig()));
+    addFlowlet("navigatorPublisher", new NavigatorPublisher(navigatorAppConfig.getNavigatorConfig()),
+               navigatorAppConfig.getPublisherInstances());
     connect("auditLogConsumer", "navigatorPublisher");
   }
 }
@@ -17,6 +17,8 @@
 package co.cask.cdap.metadata;
 
 import co.cask.cdap.api.app.AbstractApplication;
+import co.cask.cdap.api.dataset.lib.KeyValueTable;
+import co.cask.cdap.api.dataset.table.Table;
 import co.cask.cdap.metadata.config.NavigatorAppConfig;
 
 /**
@@ -29,7 +31,17 @@ public class NavigatorApp extends AbstractApplication<NavigatorAppConfig> {
   public void configure() {
     setName("NavigatorIntegration");
     setDescription("Application that pushes metadata to Navigator");
-    addFlow(new MetadataFlow(getConfig()));
+    // Shared by the publisher, which records rejected entities, and the service, which replays them
+    createDataset(getConfig().getNavigatorConfig().getDeadLetterDataset(), Table.class);
+    createDataset(getConfig().getNavigatorConfig().getSpillDataset(), Table.class);
+    if (getConfig().getPipelineMode() == NavigatorAppConfig.PipelineMode.WORKER) {
+      // Created by the consumer flowlet in the flow mode
+      createDataset(getConfig().getAuditLogConfig().getOffsetDataset(), KeyValueTable.class);
+      addWorker(new NavigatorPipelineWorker(getConfig().getNavigatorConfig()));
+    } else {
+      addFlow(new MetadataFlow(getConfig()));
+    }
     addService("NavigatorQuery", new NavigatorQueryHandler());
+    addWorker(new NavigatorResyncWorker());
   }
 }
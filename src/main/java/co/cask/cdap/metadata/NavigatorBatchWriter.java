@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.metadata.entity.NavigatorClientWriteException;
+import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.cloudera.nav.sdk.client.writer.ResultSet;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
+
+/**
+ * Accumulates Navigator {@link Entity}s and writes them to Navigator in a single request once either the configured
+ * number of entities or the configured approximate size in bytes is reached.
+ * <p>
+ * Full batches are written asynchronously, with at most {@code maxInFlightWrites} requests outstanding at any time.
+ * Adding entities blocks while that window is full. {@link #flush()} waits for all outstanding writes to complete, so
+ * that callers only acknowledge their input once it has been written to Navigator.
+ * </p>
+ * <p>
+ * Errors are classified by their type, never by their message. Requests that fail with an I/O error, which includes
+ * HTTP error statuses of the Navigator server, or that are abandoned by the {@link NavigatorRequestExecutor} after its
+ * timeout, are considered transient and retried according to the {@link RetryPolicy}, unless the
+ * {@link CircuitBreaker} is open. Errors reported by Navigator in the {@link ResultSet} of a request it processed, and
+ * other exceptions, which the SDK raises before sending a request, are considered permanent: a rejected batch is
+ * split until the rejected entities are isolated, which are then returned by {@link #flush()} instead of failing the
+ * remaining entities.
+ * </p>
+ * <p>
+ * The latency of every request is recorded in the {@code navigator.write.latency} histogram, and failed requests are
+ * counted by the type of the error.
+ * </p>
+ * This class is not thread safe and is expected to be used by a single thread.
+ */
+public class NavigatorBatchWriter implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(NavigatorBatchWriter.class);
+
+  private final EntityWriter entityWriter;
+  private final int batchSize;
+  private final long batchSizeBytes;
+  private final List<Entity> pending;
+  private final List<Future<?>> inFlight;
+  private final Semaphore window;
+  private final ExecutorService executor;
+  private final RetryPolicy retryPolicy;
+  private final CircuitBreaker circuitBreaker;
+  private final Queue<RejectedWrite> rejected;
+  private final Metrics metrics;
+  private final LatencyBuckets latencyBuckets;
+  private long pendingBytes;
+
+  public NavigatorBatchWriter(final NavigatorPlugin navigatorPlugin, final NavigatorRequestExecutor requestExecutor,
+                              int batchSize, long batchSizeBytes, int maxInFlightWrites, RetryPolicy retryPolicy,
+                              CircuitBreaker circuitBreaker, Metrics metrics) {
+    this(new EntityWriter() {
+      @Nullable
+      @Override
+      public String write(final List<Entity> batch) throws InterruptedException {
+        ResultSet resultSet = requestExecutor.execute(new Callable<ResultSet>() {
+          @Override
+          public ResultSet call() {
+            return navigatorPlugin.write(batch);
+          }
+        });
+        return resultSet.hasErrors() ? resultSet.toString() : null;
+      }
+    }, batchSize, batchSizeBytes, maxInFlightWrites, retryPolicy, circuitBreaker, metrics);
+  }
+
+  @VisibleForTesting
+  NavigatorBatchWriter(EntityWriter entityWriter, int batchSize, long batchSizeBytes, int maxInFlightWrites,
+                       RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Metrics metrics) {
+    this.entityWriter = entityWriter;
+    this.retryPolicy = retryPolicy;
+    this.circuitBreaker = circuitBreaker;
+    this.rejected = new ConcurrentLinkedQueue<>();
+    this.metrics = metrics;
+    this.latencyBuckets = new LatencyBuckets("navigator.write.latency");
+    this.batchSize = Math.max(1, batchSize);
+    this.batchSizeBytes = batchSizeBytes;
+    this.pending = new ArrayList<>(this.batchSize);
+    this.inFlight = new ArrayList<>();
+    this.window = new Semaphore(Math.max(1, maxInFlightWrites));
+    this.executor = Executors.newFixedThreadPool(Math.max(1, maxInFlightWrites),
+                                                 new ThreadFactoryBuilder()
+                                                   .setNameFormat("navigator-writer-%d")
+                                                   .setDaemon(true)
+                                                   .build());
+  }
+
+  /**
+   * Adds an {@link Entity} to the current batch, submitting the batch for writing to Navigator if it is full.
+   *
+   * @param entity the entity to write
+   * @param sizeBytes approximate size of the metadata carried by the entity
+   * @throws InterruptedException if interrupted while waiting for a free slot in the in-flight window
+   */
+  public void add(Entity entity, long sizeBytes) throws InterruptedException {
+    pending.add(entity);
+    pendingBytes += sizeBytes;
+    if (pending.size() >= batchSize || pendingBytes >= batchSizeBytes) {
+      submit();
+    }
+  }
+
+  /**
+   * Writes all pending entities to Navigator and waits for all outstanding writes to complete.
+   *
+   * @return the entities rejected by Navigator since the last flush
+   * @throws NavigatorClientWriteException if any of the batches could not be written within the retry policy
+   * @throws InterruptedException if interrupted while waiting for the writes to complete
+   */
+  public List<RejectedWrite> flush() throws NavigatorClientWriteException, InterruptedException {
+    if (!pending.isEmpty()) {
+      submit();
+    }
+
+    Throwable failure = null;
+    for (Future<?> future : inFlight) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        } else {
+          LOG.debug("Additional failure while writing to Navigator", e.getCause());
+        }
+      }
+    }
+    inFlight.clear();
+
+    List<RejectedWrite> result = new ArrayList<>();
+    RejectedWrite rejectedWrite;
+    while ((rejectedWrite = rejected.poll()) != null) {
+      result.add(rejectedWrite);
+    }
+
+    if (failure != null) {
+      Throwables.propagateIfInstanceOf(failure, NavigatorClientWriteException.class);
+      Throwables.propagateIfInstanceOf(failure, InterruptedException.class);
+      throw Throwables.propagate(failure);
+    }
+    return result;
+  }
+
+  public CircuitBreaker.State getCircuitState() {
+    return circuitBreaker.getState();
+  }
+
+  /**
+   * @return whether writes to Navigator are currently suspended after repeated failures
+   */
+  public boolean isCircuitOpen() {
+    return circuitBreaker.isOpen();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void submit() throws InterruptedException {
+    final List<Entity> batch = new ArrayList<>(pending);
+    pending.clear();
+    pendingBytes = 0;
+
+    // Apply back pressure on the caller while the maximum number of writes are in flight
+    window.acquire();
+    try {
+      inFlight.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          try {
+            write(batch);
+            return null;
+          } finally {
+            window.release();
+          }
+        }
+      }));
+    } catch (RejectedExecutionException e) {
+      window.release();
+      throw e;
+    }
+  }
+
+  private void write(List<Entity> batch) throws NavigatorClientWriteException, InterruptedException {
+    LOG.trace("Writing {} entities to Navigator", batch.size());
+    String errors = writeWithRetry(batch);
+    if (errors == null) {
+      return;
+    }
+    if (batch.size() == 1) {
+      rejected.add(new RejectedWrite(batch.get(0), errors));
+      return;
+    }
+    // Navigator does not tell which entities of a batch were rejected, so narrow them down by splitting the batch
+    int half = batch.size() / 2;
+    write(new ArrayList<>(batch.subList(0, half)));
+    write(new ArrayList<>(batch.subList(half, batch.size())));
+  }
+
+  /**
+   * @return the errors of a write that Navigator rejected permanently, or {@code null} if the write succeeded
+   */
+  @Nullable
+  private String writeWithRetry(List<Entity> batch) throws NavigatorClientWriteException, InterruptedException {
+    int retry = 0;
+    while (true) {
+      Exception failure;
+      if (circuitBreaker.allowRequest()) {
+        long startMillis = System.currentTimeMillis();
+        try {
+          String errors = entityWriter.write(batch);
+          recordLatency(startMillis);
+          circuitBreaker.recordSuccess();
+          metrics.count("navigator.write.entities", batch.size());
+          if (errors != null) {
+            metrics.count("navigator.write.errors.rejected", 1);
+          }
+          return errors;
+        } catch (RuntimeException e) {
+          recordLatency(startMillis);
+          metrics.count("navigator.write.errors." + e.getClass().getSimpleName(), 1);
+          if (!isTransient(e)) {
+            // Not a failure of Navigator, and repeating the request would fail the same way
+            circuitBreaker.recordSuccess();
+            return e.toString();
+          }
+          circuitBreaker.recordFailure();
+          failure = e;
+        }
+      } else {
+        metrics.count("navigator.write.errors.circuit.open", 1);
+        failure = new NavigatorClientWriteException("Writes to Navigator are suspended after repeated failures");
+      }
+
+      if (!retryPolicy.shouldRetry(retry)) {
+        throw new NavigatorClientWriteException(
+          String.format("Failed to write %d entities to Navigator after %d retries", batch.size(), retry), failure);
+      }
+      long delay = retryPolicy.getDelayMillis(retry++);
+      LOG.debug("Retrying write of {} entities to Navigator in {} ms", batch.size(), delay, failure);
+      metrics.count("navigator.write.retries", 1);
+      TimeUnit.MILLISECONDS.sleep(delay);
+    }
+  }
+
+  /**
+   * @return whether a failed request may succeed when it is repeated, i.e. whether it failed on the connection to
+   *         Navigator, with an HTTP error status or with a timeout
+   */
+  @VisibleForTesting
+  static boolean isTransient(Throwable failure) {
+    for (Throwable cause : Throwables.getCausalChain(failure)) {
+      if (cause instanceof IOException || cause instanceof TimeoutException
+        || cause instanceof UncheckedTimeoutException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void recordLatency(long startMillis) {
+    long latency = System.currentTimeMillis() - startMillis;
+    metrics.count("navigator.write.requests", 1);
+    metrics.count("navigator.write.time.ms", (int) latency);
+    metrics.count(latencyBuckets.getName(latency), 1);
+  }
+
+  /**
+   * Writes a batch of entities to Navigator.
+   */
+  @VisibleForTesting
+  interface EntityWriter {
+
+    /**
+     * @return the errors reported by Navigator, or {@code null} if all entities were written
+     * @throws RuntimeException if the request failed
+     * @throws InterruptedException if interrupted while waiting for the request to complete
+     */
+    @Nullable
+    String write(List<Entity> batch) throws InterruptedException;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.metadata.entity.ApplicationEntity;
+import co.cask.cdap.metadata.entity.ArtifactEntity;
+import co.cask.cdap.metadata.entity.DatasetEntity;
+import co.cask.cdap.metadata.entity.ProgramEntity;
+import co.cask.cdap.metadata.entity.StreamEntity;
+import co.cask.cdap.metadata.entity.StreamViewEntity;
+import co.cask.cdap.metadata.entity.UnsupportedEntityException;
+import co.cask.cdap.proto.element.EntityType;
+import co.cask.cdap.proto.id.ApplicationId;
+import co.cask.cdap.proto.id.ArtifactId;
+import co.cask.cdap.proto.id.DatasetId;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.ProgramId;
+import co.cask.cdap.proto.id.StreamId;
+import co.cask.cdap.proto.id.StreamViewId;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Utility class to convert CDAP entities and their metadata changes to Navigator {@link Entity}s.
+ */
+public final class NavigatorEntities {
+  /**
+   * Property set to {@code true} on Navigator entities whose CDAP entity was deleted. The Navigator plugin API can
+   * only create and update entities, so deleted entities are flagged instead of removed.
+   */
+  public static final String DELETED_PROPERTY = "cdap.entity.deleted";
+
+  private static final Logger LOG = LoggerFactory.getLogger(NavigatorEntities.class);
+
+  /**
+   * Creates the Navigator {@link Entity} representing a CDAP entity, without any metadata changes.
+   *
+   * @param entityId the CDAP entity
+   * @param namespace the Navigator namespace
+   * @throws UnsupportedEntityException if the type of the entity is not published to Navigator
+   */
+  public static Entity create(EntityId entityId, String namespace) throws UnsupportedEntityException {
+    Entity entity;
+    EntityType entityType = entityId.getEntityType();
+    switch (entityType) {
+      case APPLICATION:
+        entity = new ApplicationEntity((ApplicationId) entityId);
+        break;
+      case PROGRAM:
+        entity = new ProgramEntity((ProgramId) entityId);
+        break;
+      case DATASET:
+        entity = new DatasetEntity((DatasetId) entityId);
+        break;
+      case STREAM:
+        entity = new StreamEntity((StreamId) entityId);
+        break;
+      case ARTIFACT:
+        entity = new ArtifactEntity((ArtifactId) entityId);
+        break;
+      case STREAM_VIEW:
+        entity = new StreamViewEntity((StreamViewId) entityId);
+        break;
+      default:
+        throw new UnsupportedEntityException(entityType);
+    }
+    entity.setNamespace(namespace);
+    return entity;
+  }
+
+  /**
+   * Adds the changes of a {@link MetadataDelta} to a Navigator {@link Entity}.
+   */
+  public static void applyDelta(Entity entity, MetadataDelta delta) {
+    entity.addTags(delta.getAddedTags());
+    entity.addProperties(delta.getAddedProperties());
+    entity.removeTags(delta.getDeletedTags());
+    entity.removeProperties(delta.getDeletedProperties());
+    LOG.trace("Navigator Entity {} : AdditionTags = {}, DeletionTags = {}, NewProperties = {}, DelProperties = {}",
+              entity.getName(), entity.getTags().getNewTags(), entity.getTags().getDelTags(),
+              entity.getProperties().getNewProperties(), entity.getProperties().getRemoveProperties());
+  }
+
+  private NavigatorEntities() {
+    // no-op
+  }
+}
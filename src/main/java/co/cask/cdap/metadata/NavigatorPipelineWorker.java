@@ -0,0 +1,464 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.TxRunnable;
+import co.cask.cdap.api.data.DatasetContext;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.api.dataset.lib.KeyValueTable;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.api.messaging.Message;
+import co.cask.cdap.api.messaging.MessageFetcher;
+import co.cask.cdap.api.messaging.TopicNotFoundException;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.worker.AbstractWorker;
+import co.cask.cdap.api.worker.WorkerContext;
+import co.cask.cdap.metadata.config.AuditLogConfig;
+import co.cask.cdap.metadata.config.NavigatorAppConfig;
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import co.cask.cdap.metadata.entity.NavigatorClientWriteException;
+import co.cask.cdap.proto.id.EntityId;
+import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Worker that moves audit messages from the audit topic to Navigator without going through the transactional queue of
+ * the {@link MetadataFlow}. It is used instead of the flow in the {@link NavigatorAppConfig.PipelineMode#WORKER} mode.
+ * <p>
+ * The worker thread fetches audit messages and hands the relevant records to a pool of publisher threads through
+ * bounded in-memory queues, partitioned by entity so that the changes of each entity are written in order. After each
+ * fetch, a checkpoint is passed to all publisher threads, which write the changes they coalesced up to it to Navigator.
+ * The offset of a fetch is written to the offset dataset only once all publisher threads have passed its checkpoint,
+ * so audit messages are processed again after a failure rather than lost. Like the {@link AuditLogConsumer}, the worker
+ * adapts the fetch size with a {@link FetchSizeController} and writes the offset once per checkpoint interval.
+ * </p>
+ * <p>
+ * Writes are retried by the {@link NavigatorBatchWriter} according to the {@link RetryPolicy}. While the shared
+ * {@link CircuitBreaker} is open, the publisher threads wait for Navigator to come back and write the changes again.
+ * Changes that still fail once the retries are exhausted are stored in the dead letter dataset, like rejected ones.
+ * </p>
+ * <p>
+ * The worker shares the offset dataset with the {@link AuditLogConsumer}, and all audit messages go through a single
+ * instance, since every instance would have to read the whole audit topic.
+ * </p>
+ */
+public final class NavigatorPipelineWorker extends AbstractWorker {
+  public static final String NAME = "NavigatorPipeline";
+
+  private static final Logger LOG = LoggerFactory.getLogger(NavigatorPipelineWorker.class);
+  private static final Gson GSON = new Gson();
+  // Interval in which a blocked handoff checks whether the worker was stopped or a publisher thread failed
+  private static final long HANDOFF_TIMEOUT_MILLIS = 1000L;
+  // Time a fetch, including the handoff of its records, may take before the fetch size is reduced, which is the
+  // default transaction budget of the consumer flowlet
+  private static final long FETCH_BUDGET_MILLIS = 20000L;
+
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private AuditLogConfig auditLogConfig;
+  private NavigatorConfig navigatorConfig;
+  private int threads;
+  private int queueSize;
+  private Metrics metrics;
+  private volatile boolean stopped;
+
+  public NavigatorPipelineWorker(NavigatorConfig navigatorConfig) {
+    NavigatorPublisher.verifyConfig(navigatorConfig);
+  }
+
+  @Override
+  protected void configure() {
+    setName(NAME);
+    setDescription("Worker that fetches audit messages and writes the metadata changes to Navigator");
+    setInstances(1);
+  }
+
+  @Override
+  public void initialize(WorkerContext context) throws Exception {
+    super.initialize(context);
+    NavigatorAppConfig appConfig = GSON.fromJson(context.getApplicationSpecification().getConfiguration(),
+                                                 NavigatorAppConfig.class);
+    auditLogConfig = appConfig.getAuditLogConfig();
+    navigatorConfig = appConfig.getNavigatorConfig();
+    NavigatorPublisher.verifyConfig(navigatorConfig);
+    threads = Math.max(1, appConfig.getWorkerThreads());
+    queueSize = Math.max(1, appConfig.getWorkerQueueSize());
+  }
+
+  @Override
+  public void run() {
+    NavigatorPlugin navigatorPlugin = NavigatorPlugin.fromConfigMap(NavigatorConfigConverter.convert(navigatorConfig));
+    // Navigator is shared by all publisher threads, hence so is the circuit breaker tracking its health
+    CircuitBreaker circuitBreaker = new CircuitBreaker(navigatorConfig.getCircuitBreakerFailureRate(),
+                                                       navigatorConfig.getCircuitBreakerWindow(),
+                                                       navigatorConfig.getCircuitBreakerOpenMs());
+    // So are the connections to Navigator
+    NavigatorRequestExecutor requestExecutor = new NavigatorRequestExecutor(navigatorConfig);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+      .setNameFormat("navigator-pipeline-%d")
+      .setDaemon(true)
+      .build());
+    List<Publisher> publishers = new ArrayList<>(threads);
+    try {
+      for (int i = 0; i < threads; i++) {
+        Publisher publisher = new Publisher(navigatorPlugin, requestExecutor, circuitBreaker);
+        publishers.add(publisher);
+        executor.execute(publisher);
+      }
+      consume(publishers);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    } finally {
+      stopped = true;
+      executor.shutdownNow();
+      requestExecutor.close();
+    }
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Fetches audit messages until the worker is stopped, hands them to the publishers and writes the offset of the
+   * messages that were published.
+   */
+  private void consume(List<Publisher> publishers) throws Exception {
+    MessageFetcher messageFetcher = getContext().getMessageFetcher();
+    FetchSizeController fetchSizeController = new FetchSizeController(auditLogConfig.getLimit(),
+                                                                      auditLogConfig.getMaxLimit(),
+                                                                      FETCH_BUDGET_MILLIS);
+    long pollDelayMs = auditLogConfig.getMinPollDelayMs();
+    String offset = readOffset();
+    Deque<Checkpoint> pending = new ArrayDeque<>();
+    // Offset of the last published fetch and the number of messages up to it, until it is written
+    String published = null;
+    int uncheckpointed = 0;
+    while (!stopped) {
+      checkFailure();
+      int limit = fetchSizeController.getLimit();
+      long fetchStartMillis = System.currentTimeMillis();
+      int fetched = 0;
+      int emitted = 0;
+      int dropped = 0;
+      long lastMessageTime = 0L;
+      try (CloseableIterator<Message> messages = AuditOffsetStore.fetch(
+        messageFetcher, auditLogConfig.getNamespace(), auditLogConfig.getTopic(), limit, offset)) {
+        while (messages.hasNext()) {
+          Message message = messages.next();
+          offset = message.getId();
+          fetched++;
+          AuditRecord record = decode(message);
+          if (record == null) {
+            dropped++;
+            continue;
+          }
+          lastMessageTime = record.getTime();
+          getPublisher(publishers, record.getEntityId()).handoff(new Handoff(record, null));
+          emitted++;
+        }
+      } catch (TopicNotFoundException e) {
+        LOG.warn("Audit Topic {} was not found.", auditLogConfig.getTopic(), e);
+        metrics.count("audit.errors.topic.not.found", 1);
+      }
+
+      if (fetched > 0) {
+        long fetchMillis = System.currentTimeMillis() - fetchStartMillis;
+        long lagMillis = lastMessageTime > 0 ? System.currentTimeMillis() - lastMessageTime : 0L;
+        fetchSizeController.update(fetched, fetchMillis, fetchMillis, lagMillis);
+        Checkpoint checkpoint = new Checkpoint(offset, fetched, publishers.size());
+        for (Publisher publisher : publishers) {
+          publisher.handoff(new Handoff(null, checkpoint));
+        }
+        pending.add(checkpoint);
+      }
+      // Only the offsets of fetches whose records were all written to Navigator are checkpointed
+      while (!pending.isEmpty() && pending.peek().isPublished()) {
+        Checkpoint checkpoint = pending.poll();
+        published = checkpoint.getOffset();
+        uncheckpointed += checkpoint.getMessages();
+      }
+      if (published != null && uncheckpointed >= auditLogConfig.getCheckpointInterval()) {
+        writeOffset(published);
+        published = null;
+        uncheckpointed = 0;
+      }
+
+      metrics.gauge("audit.fetch.limit", fetchSizeController.getLimit());
+      metrics.count("audit.fetched", fetched);
+      metrics.count("audit.emitted", emitted);
+      metrics.count("audit.dropped", dropped);
+      if (lastMessageTime > 0) {
+        metrics.gauge("audit.lag.ms", System.currentTimeMillis() - lastMessageTime);
+      }
+      metrics.gauge("pipeline.checkpoints.pending", pending.size());
+
+      if (fetched == 0) {
+        // Back off exponentially while the topic is idle
+        TimeUnit.MILLISECONDS.sleep(pollDelayMs);
+        pollDelayMs = Math.min(auditLogConfig.getMaxPollDelayMs(), pollDelayMs * 2);
+      } else {
+        pollDelayMs = auditLogConfig.getMinPollDelayMs();
+        if (fetched < limit) {
+          TimeUnit.MILLISECONDS.sleep(pollDelayMs);
+        }
+      }
+    }
+    if (published != null) {
+      // Do not process the published messages again after a regular stop
+      writeOffset(published);
+    }
+  }
+
+  /**
+   * @return the audit record of the message, or {@code null} if it is not relevant to Navigator or malformed
+   */
+  @Nullable
+  private static AuditRecord decode(Message message) {
+    byte[] payload = message.getPayload();
+    try {
+      AuditMessageDecoder.Header header = AuditMessageDecoder.decodeHeader(payload);
+      if (!NavigatorPublisher.SUPPORTED_AUDIT_TYPES.contains(header.getType())
+        || !NavigatorPublisher.SUPPORTED_ENTITY_TYPES.contains(header.getEntityId().getEntityType())) {
+        return null;
+      }
+      return AuditMessageDecoder.decode(payload);
+    } catch (JsonParseException e) {
+      LOG.warn("Ignoring malformed audit message with id {}.", message.getId(), e);
+      return null;
+    }
+  }
+
+  /**
+   * Fails the worker if a publisher thread failed, since the offset cannot move past the records handed to it.
+   */
+  private void checkFailure() {
+    Throwable cause = failure.get();
+    if (cause != null) {
+      throw new IllegalStateException("A publisher thread failed", cause);
+    }
+  }
+
+  private static Publisher getPublisher(List<Publisher> publishers, EntityId entityId) {
+    return publishers.get((entityId.hashCode() & Integer.MAX_VALUE) % publishers.size());
+  }
+
+  private String readOffset() throws Exception {
+    final AtomicReference<String> offset = new AtomicReference<>();
+    getContext().execute(new TxRunnable() {
+      @Override
+      public void run(DatasetContext context) throws Exception {
+        KeyValueTable offsetTable = context.getDataset(auditLogConfig.getOffsetDataset());
+        offset.set(new AuditOffsetStore(offsetTable).get());
+      }
+    });
+    return offset.get();
+  }
+
+  private void writeOffset(final String offset) throws Exception {
+    getContext().execute(new TxRunnable() {
+      @Override
+      public void run(DatasetContext context) throws Exception {
+        KeyValueTable offsetTable = context.getDataset(auditLogConfig.getOffsetDataset());
+        new AuditOffsetStore(offsetTable).set(offset);
+      }
+    });
+  }
+
+  /**
+   * Publisher thread that coalesces the records handed to it and writes them to Navigator at every checkpoint.
+   */
+  private final class Publisher implements Runnable {
+    private final BlockingQueue<Handoff> queue = new ArrayBlockingQueue<>(queueSize);
+    private final NavigatorPlugin navigatorPlugin;
+    private final NavigatorRequestExecutor requestExecutor;
+    private final CircuitBreaker circuitBreaker;
+
+    Publisher(NavigatorPlugin navigatorPlugin, NavigatorRequestExecutor requestExecutor,
+              CircuitBreaker circuitBreaker) {
+      this.navigatorPlugin = navigatorPlugin;
+      this.requestExecutor = requestExecutor;
+      this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Hands a record or a checkpoint to this publisher, waiting while its queue is full.
+     */
+    void handoff(Handoff handoff) throws InterruptedException {
+      while (!queue.offer(handoff, HANDOFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        checkFailure();
+        if (stopped) {
+          throw new InterruptedException("Navigator pipeline was stopped");
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      RetryPolicy retryPolicy = new RetryPolicy(navigatorConfig.getMaxRetries(), navigatorConfig.getRetryBaseDelayMs(),
+                                                navigatorConfig.getRetryMaxDelayMs());
+      MetadataDeltaCoalescer coalescer = new MetadataDeltaCoalescer();
+      PushedStateCache pushedStateCache = new PushedStateCache(navigatorConfig.getPushedStateCacheSize());
+      try (NavigatorBatchWriter batchWriter = new NavigatorBatchWriter(
+        navigatorPlugin, requestExecutor, navigatorConfig.getBatchSize(), navigatorConfig.getBatchSizeBytes(),
+        navigatorConfig.getMaxInFlightWrites(), retryPolicy, circuitBreaker, metrics)) {
+        MetadataChangeWriter changeWriter = new MetadataChangeWriter(batchWriter, pushedStateCache,
+                                                                     navigatorConfig.getNamespace(), metrics);
+        while (!stopped) {
+          Handoff handoff = queue.take();
+          if (handoff.record != null) {
+            coalescer.add(handoff.record);
+            continue;
+          }
+          publish(changeWriter, coalescer.drain());
+          handoff.checkpoint.published();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable t) {
+        LOG.error("Navigator publisher thread failed.", t);
+        failure.compareAndSet(null, t);
+      }
+    }
+
+    /**
+     * Writes changes to Navigator and stores the rejected ones in the dead letter dataset.
+     */
+    private void publish(final MetadataChangeWriter changeWriter,
+                         final Map<EntityId, MetadataDelta> deltas) throws Exception {
+      final MetadataChangeWriter.Result result;
+      try {
+        result = write(changeWriter, deltas);
+      } catch (final NavigatorClientWriteException e) {
+        // Navigator is reachable but keeps failing these changes, so set them aside rather than block the offset
+        LOG.warn("Failed to write metadata changes of {} entities to Navigator, storing them in dataset {}.",
+                 deltas.size(), navigatorConfig.getDeadLetterDataset(), e);
+        getContext().execute(new TxRunnable() {
+          @Override
+          public void run(DatasetContext context) throws Exception {
+            Table deadLetters = context.getDataset(navigatorConfig.getDeadLetterDataset());
+            changeWriter.deadLetter(deltas, e.getMessage(), new DeadLetterStore(deadLetters));
+          }
+        });
+        return;
+      }
+      if (!changeWriter.needsDeadLetterStore(result)) {
+        changeWriter.complete(result, null);
+        return;
+      }
+      getContext().execute(new TxRunnable() {
+        @Override
+        public void run(DatasetContext context) throws Exception {
+          Table deadLetters = context.getDataset(navigatorConfig.getDeadLetterDataset());
+          changeWriter.complete(result, new DeadLetterStore(deadLetters));
+        }
+      });
+    }
+
+    /**
+     * Writes changes to Navigator, trying again whenever the circuit breaker opens, since the offset must not move
+     * past the changes while Navigator is unreachable.
+     *
+     * @throws NavigatorClientWriteException if the retries of a write are exhausted while the circuit is closed
+     */
+    private MetadataChangeWriter.Result write(MetadataChangeWriter changeWriter, Map<EntityId, MetadataDelta> deltas)
+      throws NavigatorClientWriteException, InterruptedException {
+      while (true) {
+        try {
+          return changeWriter.write(deltas);
+        } catch (NavigatorClientWriteException e) {
+          if (!circuitBreaker.isOpen()) {
+            throw e;
+          }
+          LOG.warn("Navigator is unreachable, writing metadata changes of {} entities again in {} ms.",
+                   deltas.size(), navigatorConfig.getCircuitBreakerOpenMs(), e);
+          metrics.count("pipeline.publish.retries", 1);
+          // The next write after the open period is the trial write of the circuit breaker
+          TimeUnit.MILLISECONDS.sleep(navigatorConfig.getCircuitBreakerOpenMs());
+        }
+      }
+    }
+  }
+
+  /**
+   * Element of the queue of a publisher thread, either an audit record or a checkpoint.
+   */
+  private static final class Handoff {
+    @Nullable
+    private final AuditRecord record;
+    @Nullable
+    private final Checkpoint checkpoint;
+
+    Handoff(@Nullable AuditRecord record, @Nullable Checkpoint checkpoint) {
+      this.record = record;
+      this.checkpoint = checkpoint;
+    }
+  }
+
+  /**
+   * Offset of a fetch, which may be written to the offset dataset once all publisher threads have written the records
+   * handed to them before it.
+   */
+  private static final class Checkpoint {
+    private final String offset;
+    private final int messages;
+    private final CountDownLatch publishers;
+
+    Checkpoint(String offset, int messages, int publishers) {
+      this.offset = offset;
+      this.messages = messages;
+      this.publishers = new CountDownLatch(publishers);
+    }
+
+    String getOffset() {
+      return offset;
+    }
+
+    int getMessages() {
+      return messages;
+    }
+
+    void published() {
+      publishers.countDown();
+    }
+
+    boolean isPublished() {
+      return publishers.getCount() == 0;
+    }
+  }
+}
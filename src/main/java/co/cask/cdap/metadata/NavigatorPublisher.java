@@ -16,59 +16,78 @@
 
 package co.cask.cdap.metadata;
 
+import co.cask.cdap.api.annotation.Batch;
+import co.cask.cdap.api.annotation.HashPartition;
 import co.cask.cdap.api.annotation.ProcessInput;
+import co.cask.cdap.api.annotation.Tick;
+import co.cask.cdap.api.dataset.table.Table;
 import co.cask.cdap.api.flow.flowlet.AbstractFlowlet;
 import co.cask.cdap.api.flow.flowlet.FlowletContext;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.metadata.config.NavigatorAppConfig;
 import co.cask.cdap.metadata.config.NavigatorConfig;
-import co.cask.cdap.metadata.entity.ApplicationEntity;
-import co.cask.cdap.metadata.entity.ArtifactEntity;
-import co.cask.cdap.metadata.entity.DatasetEntity;
 import co.cask.cdap.metadata.entity.NavigatorClientWriteException;
-import co.cask.cdap.metadata.entity.ProgramEntity;
-import co.cask.cdap.metadata.entity.StreamEntity;
-import co.cask.cdap.metadata.entity.StreamViewEntity;
-import co.cask.cdap.metadata.entity.UnsupportedEntityException;
 import co.cask.cdap.proto.audit.AuditMessage;
 import co.cask.cdap.proto.audit.AuditType;
-import co.cask.cdap.proto.audit.payload.metadata.MetadataPayload;
-import co.cask.cdap.proto.codec.AuditMessageTypeAdapter;
-import co.cask.cdap.proto.codec.EntityIdTypeAdapter;
 import co.cask.cdap.proto.element.EntityType;
-import co.cask.cdap.proto.id.ApplicationId;
-import co.cask.cdap.proto.id.ArtifactId;
-import co.cask.cdap.proto.id.DatasetId;
 import co.cask.cdap.proto.id.EntityId;
-import co.cask.cdap.proto.id.ProgramId;
-import co.cask.cdap.proto.id.StreamId;
-import co.cask.cdap.proto.id.StreamViewId;
-import co.cask.cdap.proto.metadata.Metadata;
-import co.cask.cdap.proto.metadata.MetadataScope;
 import com.cloudera.nav.sdk.client.NavigatorPlugin;
-import com.cloudera.nav.sdk.client.writer.ResultSet;
 import com.cloudera.nav.sdk.model.entities.Entity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Deserializes {@link AuditMessage} and creates Navigator {@link Entity}s and writes them to Navigator.
+ * Decodes the {@link AuditRecord}s of {@link AuditMessage}s, coalesces the metadata changes of each entity in a
+ * dequeued batch, creates Navigator {@link Entity}s and writes them to Navigator in batches.
  */
 public final class NavigatorPublisher extends AbstractFlowlet {
+  /**
+   * Name of the partition key used to route all audit messages of an entity to the same publisher instance.
+   */
+  public static final String PARTITION_KEY = "entityId";
+
+  /**
+   * Types of audit messages that are published to Navigator.
+   */
+  public static final Set<AuditType> SUPPORTED_AUDIT_TYPES = Sets.immutableEnumSet(
+    AuditType.METADATA_CHANGE, AuditType.CREATE, AuditType.DELETE);
+
+  /**
+   * CDAP entity types whose metadata is published to Navigator.
+   */
+  public static final Set<EntityType> SUPPORTED_ENTITY_TYPES = Sets.immutableEnumSet(
+    EntityType.APPLICATION, EntityType.PROGRAM, EntityType.DATASET, EntityType.STREAM, EntityType.ARTIFACT,
+    EntityType.STREAM_VIEW);
+
   private static final Logger LOG = LoggerFactory.getLogger(NavigatorPublisher.class);
-  private static final Gson GSON = new GsonBuilder()
-    .registerTypeAdapter(AuditMessage.class, new AuditMessageTypeAdapter())
-    .registerTypeAdapter(EntityId.class, new EntityIdTypeAdapter())
-    .create();
+  private static final Gson GSON = new Gson();
+  // Maximum number of audit messages dequeued from the flow queue in a single transaction
+  private static final int DEQUEUE_BATCH_SIZE = 1000;
+  // Interval at which spilled changes are drained while no audit messages arrive
+  private static final long SPILL_DRAIN_DELAY_SECONDS = 1L;
 
   private NavigatorConfig navigatorConfig;
   private NavigatorPlugin navigatorPlugin;
+  private NavigatorRequestExecutor requestExecutor;
+  private NavigatorBatchWriter batchWriter;
+  private MetadataDeltaCoalescer coalescer;
+  private PushedStateCache pushedStateCache;
+  private DeadLetterStore deadLetterStore;
+  private SpillStore spillStore;
+  private MetadataChangeWriter changeWriter;
+  private Metrics metrics;
 
   public NavigatorPublisher(NavigatorConfig navigatorConfig) {
     verifyConfig(navigatorConfig);
@@ -91,6 +110,22 @@ public final class NavigatorPublisher extends AbstractFlowlet {
     if (navigatorConfig.getPassword() == null) {
       throw new IllegalArgumentException("Navigator Password should be provided!");
     }
+
+    if (navigatorConfig.getRequestTimeoutMs() <= 0) {
+      throw new IllegalArgumentException("Navigator request timeout should be positive!");
+    }
+
+    if (navigatorConfig.getMaxConnections() <= 0) {
+      throw new IllegalArgumentException("Navigator maximum number of connections should be positive!");
+    }
+  }
+
+  /**
+   * Returns the publisher instance that the audit messages of an entity are routed to, the same way the flow
+   * partitions its queue by the value of {@link #PARTITION_KEY}.
+   */
+  static int getInstance(EntityId entityId, int instances) {
+    return Math.abs(entityId.toString().hashCode() % instances);
   }
 
   @Override
@@ -102,76 +137,201 @@ public final class NavigatorPublisher extends AbstractFlowlet {
     Map<String, Object> naviConfig = NavigatorConfigConverter.convert(navigatorConfig);
     LOG.info("Starting Navigator Plugin with configuration : {}", naviConfig);
     navigatorPlugin = NavigatorPlugin.fromConfigMap(naviConfig);
+    RetryPolicy retryPolicy = new RetryPolicy(navigatorConfig.getMaxRetries(), navigatorConfig.getRetryBaseDelayMs(),
+                                              navigatorConfig.getRetryMaxDelayMs());
+    CircuitBreaker circuitBreaker = new CircuitBreaker(navigatorConfig.getCircuitBreakerFailureRate(),
+                                                       navigatorConfig.getCircuitBreakerWindow(),
+                                                       navigatorConfig.getCircuitBreakerOpenMs());
+    requestExecutor = new NavigatorRequestExecutor(navigatorConfig);
+    batchWriter = new NavigatorBatchWriter(navigatorPlugin, requestExecutor, navigatorConfig.getBatchSize(),
+                                           navigatorConfig.getBatchSizeBytes(), navigatorConfig.getMaxInFlightWrites(),
+                                           retryPolicy, circuitBreaker, metrics);
+    coalescer = new MetadataDeltaCoalescer();
+    pushedStateCache = new PushedStateCache(navigatorConfig.getPushedStateCacheSize());
+    changeWriter = new MetadataChangeWriter(batchWriter, pushedStateCache, navigatorConfig.getNamespace(), metrics);
+    Table deadLetters = context.getDataset(navigatorConfig.getDeadLetterDataset());
+    deadLetterStore = new DeadLetterStore(deadLetters);
+    Table spill = context.getDataset(navigatorConfig.getSpillDataset());
+    spillStore = new SpillStore(spill, context.getInstanceId());
   }
 
+  @Batch(DEQUEUE_BATCH_SIZE)
+  @HashPartition(PARTITION_KEY)
   @ProcessInput
   @SuppressWarnings("unused")
-  public void process(String serializedMetaData) throws NavigatorClientWriteException {
-    AuditMessage record = GSON.fromJson(serializedMetaData, AuditMessage.class);
-    if (record.getType() != AuditType.METADATA_CHANGE) {
-      // TODO: CDAP-5394 utilize DELETE messages to remove entities from Navigator
+  public void process(Iterator<byte[]> encodedRecords) throws NavigatorClientWriteException, InterruptedException {
+    long decodeStartNanos = System.nanoTime();
+    int records = 0;
+    int malformed = 0;
+    // Audit time of the oldest record in this batch
+    long oldestTime = Long.MAX_VALUE;
+    while (encodedRecords.hasNext()) {
+      long time = process(encodedRecords.next());
+      records++;
+      if (time < 0) {
+        malformed++;
+      } else if (time > 0) {
+        oldestTime = Math.min(oldestTime, time);
+      }
+    }
+    metrics.count("navigator.records", records);
+    metrics.count("navigator.records.malformed", malformed);
+    metrics.count("navigator.decode.time.ms",
+                  (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - decodeStartNanos));
+    if (oldestTime != Long.MAX_VALUE) {
+      metrics.gauge("navigator.queue.latency.ms", System.currentTimeMillis() - oldestTime);
+    }
+
+    Map<EntityId, MetadataDelta> deltas = coalescer.drain();
+    if (navigatorConfig.getSpillMaxEntities() > 0) {
+      if (batchWriter.isCircuitOpen()) {
+        // Keep consuming audit messages while Navigator is unreachable instead of failing the batch over and over
+        spill(deltas);
+        return;
+      }
+      long spilled = spillStore.size();
+      if (spilled > 0) {
+        deltas = drainSpill(deltas, spilled);
+      }
+    }
+    write(deltas, oldestTime);
+  }
+
+  /**
+   * Writes spilled changes to Navigator while no audit messages arrive, so that the spill dataset is drained once
+   * Navigator is reachable again even if metadata does not change. This costs a transaction and a single read per
+   * tick while nothing is spilled.
+   */
+  @Tick(delay = SPILL_DRAIN_DELAY_SECONDS, unit = TimeUnit.SECONDS)
+  @SuppressWarnings("unused")
+  public void drainSpilledChanges() throws NavigatorClientWriteException, InterruptedException {
+    if (navigatorConfig.getSpillMaxEntities() <= 0 || batchWriter.isCircuitOpen()) {
       return;
     }
+    long spilled = spillStore.size();
+    if (spilled > 0) {
+      write(drainSpill(new HashMap<EntityId, MetadataDelta>(), spilled), Long.MAX_VALUE);
+    }
+  }
 
-    EntityId entityId = record.getEntityId();
+  @Override
+  public void destroy() {
+    if (batchWriter != null) {
+      batchWriter.close();
+    }
+    if (requestExecutor != null) {
+      requestExecutor.close();
+    }
+    super.destroy();
+  }
 
-    // All the AuditPayloads will be of MetadataPayload since we skip other types of Audit messages
-    MetadataPayload payload = (MetadataPayload) record.getPayload();
+  /**
+   * Writes the changes of entities to Navigator, or spills them if Navigator becomes unreachable.
+   *
+   * @param oldestTime audit time of the oldest change, or {@link Long#MAX_VALUE} if unknown
+   */
+  private void write(Map<EntityId, MetadataDelta> deltas,
+                     long oldestTime) throws NavigatorClientWriteException, InterruptedException {
+    // Flush before returning so that the dequeued messages are only acknowledged once they are in Navigator
+    MetadataChangeWriter.Result result;
+    try {
+      result = changeWriter.write(deltas);
+    } catch (NavigatorClientWriteException e) {
+      if (navigatorConfig.getSpillMaxEntities() <= 0 || !batchWriter.isCircuitOpen()) {
+        throw e;
+      }
+      // Writing the changes again once Navigator is back is harmless, even for those that were written already
+      LOG.warn("Navigator became unreachable, storing metadata changes of {} entities in dataset {}.",
+               deltas.size(), navigatorConfig.getSpillDataset(), e);
+      spill(deltas);
+      return;
+    }
+    changeWriter.complete(result, deadLetterStore);
 
-    Map<MetadataScope, Metadata> additions = payload.getAdditions();
-    Map<MetadataScope, Metadata> deletions = payload.getDeletions();
+    if (oldestTime != Long.MAX_VALUE) {
+      // Time from the oldest audit message of this batch until its changes were written to Navigator
+      metrics.gauge("navigator.e2e.latency.ms", System.currentTimeMillis() - oldestTime);
+    }
+    metrics.gauge("navigator.circuit.open", batchWriter.getCircuitState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+    emitCacheMetrics();
+  }
 
-    // Navigator client does not differentiate between user and system tags/properties. Hence add/delete them without
-    // any classification, one after the other.
-    for (MetadataScope scope : additions.keySet()) {
-      try {
-        Entity entity = convertToEntity(entityId, additions.get(scope).getTags(), additions.get(scope).getProperties(),
-                                        deletions.get(scope).getTags(), deletions.get(scope).getProperties());
-        ResultSet resultSet = navigatorPlugin.write(entity);
-        if (resultSet.hasErrors()) {
-          throw new NavigatorClientWriteException(entity, resultSet);
+  /**
+   * @return the audit time of the record, or {@code -1} if the record is malformed
+   */
+  private long process(byte[] encodedRecord) {
+    AuditRecord record;
+    try {
+      record = AuditRecordCodec.decode(encodedRecord);
+    } catch (IOException e) {
+      LOG.warn("Ignoring malformed audit record.", e);
+      return -1L;
+    }
+    coalescer.add(record);
+    return record.getTime();
+  }
+
+  /**
+   * Stores changes in the spill dataset, to be written once Navigator is reachable again.
+   *
+   * @throws NavigatorClientWriteException if the spill dataset is full, so that the batch is processed again later
+   */
+  private void spill(Map<EntityId, MetadataDelta> deltas) throws NavigatorClientWriteException {
+    long maxEntities = navigatorConfig.getSpillMaxEntities() * getContext().getInstanceCount();
+    int count = 0;
+    for (Map.Entry<EntityId, MetadataDelta> entry : deltas.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      if (!spillStore.add(entry.getKey(), entry.getValue(), maxEntities)) {
+        metrics.gauge("navigator.spill.full", 1);
+        throw new NavigatorClientWriteException(String.format(
+          "Navigator is unreachable and dataset %s already holds the changes of %d entities",
+          navigatorConfig.getSpillDataset(), maxEntities));
+      }
+      count++;
+    }
+    metrics.count("navigator.spill.entities", count);
+    metrics.gauge("navigator.spill.full", 0);
+    metrics.gauge("navigator.spill.size", spillStore.size());
+    metrics.gauge("navigator.circuit.open", 1);
+  }
+
+  /**
+   * Takes a share of the spilled changes, together with the spilled changes of the entities in the given changes,
+   * and merges the changes of the current batch into them, since the spilled changes are older.
+   */
+  private Map<EntityId, MetadataDelta> drainSpill(Map<EntityId, MetadataDelta> deltas, long spilled) {
+    int limit = navigatorConfig.getSpillDrainBatchSize();
+    FlowletContext context = getContext();
+    Map<EntityId, MetadataDelta> merged = spillStore.take(limit, context.getInstanceId(), context.getInstanceCount());
+    boolean remaining = spilled > merged.size();
+    int drained = merged.size();
+    for (Map.Entry<EntityId, MetadataDelta> entry : deltas.entrySet()) {
+      MetadataDelta delta = merged.get(entry.getKey());
+      if (delta == null && remaining) {
+        delta = spillStore.remove(entry.getKey());
+        if (delta != null) {
+          drained++;
         }
-      } catch (UnsupportedEntityException ex) {
-        LOG.warn("EntityType {} of Entity {} not supported. Ignoring this record.", entityId.getEntityType(), entityId);
+      }
+      if (delta == null) {
+        merged.put(entry.getKey(), entry.getValue());
+      } else {
+        delta.merge(entry.getValue());
       }
     }
+    LOG.debug("Writing spilled metadata changes of {} entities to Navigator.", drained);
+    metrics.count("navigator.spill.drained", drained);
+    metrics.gauge("navigator.spill.size", spilled - drained);
+    return merged;
   }
 
-  private Entity convertToEntity(EntityId entityId, Set<String> addTags, Map<String, String> addProperties,
-                                 Set<String> deleteTags, Map<String, String> deleteProperties)
-    throws UnsupportedEntityException {
-    Entity entity;
-    EntityType entityType = entityId.getEntityType();
-    switch (entityType) {
-      case APPLICATION:
-        entity = new ApplicationEntity((ApplicationId) entityId);
-        break;
-      case PROGRAM:
-        entity = new ProgramEntity((ProgramId) entityId);
-        break;
-      case DATASET:
-        entity = new DatasetEntity((DatasetId) entityId);
-        break;
-      case STREAM:
-        entity = new StreamEntity((StreamId) entityId);
-        break;
-      case ARTIFACT:
-        entity = new ArtifactEntity((ArtifactId) entityId);
-        break;
-      case STREAM_VIEW:
-        entity = new StreamViewEntity((StreamViewId) entityId);
-        break;
-      default:
-        throw new UnsupportedEntityException(entityType);
-    }
-    entity.setNamespace(navigatorConfig.getNamespace());
-    entity.addTags(addTags);
-    entity.addProperties(addProperties);
-    entity.removeTags(deleteTags);
-    entity.removeProperties(deleteProperties.keySet());
-    LOG.trace("Navigator Entity {} : AdditionTags = {}, DeletionTags = {}, NewProperties = {}, DelProperties = {}",
-              entity.getName(), entity.getTags().getNewTags(), entity.getTags().getDelTags(),
-              entity.getProperties().getNewProperties(), entity.getProperties().getRemoveProperties());
-    return entity;
+  private void emitCacheMetrics() {
+    CacheStats stats = pushedStateCache.stats();
+    metrics.gauge("pushed.cache.hits", stats.hitCount());
+    metrics.gauge("pushed.cache.misses", stats.missCount());
+    metrics.gauge("pushed.cache.evictions", stats.evictionCount());
+    metrics.gauge("pushed.cache.size", pushedStateCache.size());
   }
 }
@@ -16,19 +16,43 @@
 
 package co.cask.cdap.metadata;
 
+import co.cask.cdap.api.dataset.lib.KeyValueTable;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.api.metrics.Metrics;
 import co.cask.cdap.api.service.http.AbstractHttpServiceHandler;
 import co.cask.cdap.api.service.http.HttpServiceContext;
 import co.cask.cdap.api.service.http.HttpServiceRequest;
 import co.cask.cdap.api.service.http.HttpServiceResponder;
+import co.cask.cdap.metadata.config.AuditLogConfig;
 import co.cask.cdap.metadata.config.NavigatorAppConfig;
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import co.cask.cdap.metadata.entity.UnsupportedEntityException;
+import co.cask.cdap.proto.id.EntityId;
 import com.cloudera.nav.sdk.client.MetadataQuery;
 import com.cloudera.nav.sdk.client.NavApiCient;
 import com.cloudera.nav.sdk.client.NavigatorPlugin;
 import com.cloudera.nav.sdk.client.ResultsBatch;
+import com.cloudera.nav.sdk.client.writer.ResultSet;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -36,21 +60,55 @@ import javax.ws.rs.QueryParam;
 
 /**
  * Service to query Navigator Metadata. This is primarily used for testing as users are expected to use Navigator UI
- * to query Navigator metadata.
+ * to query Navigator metadata. It also lists and replays the metadata changes that Navigator rejected, and moves the
+ * offset of the {@link AuditLogConsumer} in the audit topic. The offset must only be changed while the
+ * {@link MetadataFlow} is stopped, since the consumer keeps its offset in memory while running.
+ *
+ * Search results are cached for a short time, and concurrent identical searches share a single request to Navigator.
+ * All results of a search can be exported as a stream that follows the pages of the search.
  */
 public class NavigatorQueryHandler extends AbstractHttpServiceHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(NavigatorQueryHandler.class);
   private static final Gson GSON = new Gson();
 
+  // Shared by all handler instances of the service, since each instance only serves a single request at a time
+  private static Cache<List<Object>, ResultsBatch<Map<String, Object>>> searchCache;
+
+  private Metrics metrics;
+  private AuditLogConfig auditLogConfig;
+  private NavigatorConfig navigatorConfig;
+  private NavigatorPlugin navigatorPlugin;
   private NavApiCient navigatorClient;
+  private NavigatorRequestExecutor requestExecutor;
 
   @Override
   public void initialize(HttpServiceContext context) throws Exception {
     super.initialize(context);
     NavigatorAppConfig appConfig = GSON.fromJson(context.getApplicationSpecification().getConfiguration(),
                                                  NavigatorAppConfig.class);
-    NavigatorPlugin navigatorPlugin = NavigatorPlugin.fromConfigMap(
-      NavigatorConfigConverter.convert(appConfig.getNavigatorConfig()));
+    auditLogConfig = appConfig.getAuditLogConfig();
+    navigatorConfig = appConfig.getNavigatorConfig();
+    navigatorPlugin = NavigatorPlugin.fromConfigMap(NavigatorConfigConverter.convert(navigatorConfig));
     navigatorClient = navigatorPlugin.getClient();
+    requestExecutor = new NavigatorRequestExecutor(navigatorConfig);
+    initSearchCache(navigatorConfig);
+  }
+
+  @Override
+  public void destroy() {
+    if (requestExecutor != null) {
+      requestExecutor.close();
+    }
+    super.destroy();
+  }
+
+  private static synchronized void initSearchCache(NavigatorConfig navigatorConfig) {
+    if (searchCache == null) {
+      searchCache = CacheBuilder.newBuilder()
+        .maximumSize(navigatorConfig.getSearchCacheSize())
+        .expireAfterWrite(navigatorConfig.getSearchCacheTtlMs(), TimeUnit.MILLISECONDS)
+        .build();
+    }
   }
 
   @POST
@@ -58,8 +116,196 @@ public class NavigatorQueryHandler extends AbstractHttpServiceHandler {
   public void search(HttpServiceRequest request, HttpServiceResponder responder, @PathParam("query") String queryString,
                      @QueryParam("limit") @DefaultValue("10") Integer limit,
                      @QueryParam("cursorMark") @DefaultValue("") String cursorMark) {
-    ResultsBatch<Map<String, Object>> queryResults = navigatorClient.getEntityBatch(
-      new MetadataQuery(queryString, limit, cursorMark));
+    final MetadataQuery query = new MetadataQuery(queryString, limit, cursorMark);
+    final AtomicBoolean searched = new AtomicBoolean();
+    ResultsBatch<Map<String, Object>> queryResults;
+    try {
+      // Loads of the same key are not concurrent, so identical searches wait for the first one to complete
+      queryResults = searchCache.get(ImmutableList.<Object>of(queryString, limit, cursorMark),
+                                     new Callable<ResultsBatch<Map<String, Object>>>() {
+        @Override
+        public ResultsBatch<Map<String, Object>> call() throws InterruptedException {
+          searched.set(true);
+          return searchNavigator(query);
+        }
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    metrics.count(searched.get() ? "search.cache.misses" : "search.cache.hits", 1);
     responder.sendJson(200, queryResults);
   }
+
+  @GET
+  @Path("/export/{query}")
+  public void export(HttpServiceRequest request, HttpServiceResponder responder,
+                     @PathParam("query") String queryString,
+                     @QueryParam("pageSize") @DefaultValue("1000") Integer pageSize,
+                     @QueryParam("cursorMark") @DefaultValue("") String cursorMark) {
+    if (pageSize <= 0) {
+      responder.sendError(400, "Query parameter 'pageSize' must be positive");
+      return;
+    }
+    // Pages are not cached, since an export reads each of them once
+    responder.send(200, new SearchExportProducer(navigatorClient, requestExecutor, metrics, queryString,
+                                                    pageSize, cursorMark),
+                   "application/x-ndjson");
+  }
+
+  @GET
+  @Path("/deadletters")
+  public void listDeadLetters(HttpServiceRequest request, HttpServiceResponder responder,
+                              @QueryParam("limit") @DefaultValue("100") Integer limit) {
+    responder.sendJson(200, getDeadLetterStore().list(limit));
+  }
+
+  @POST
+  @Path("/deadletters/replay")
+  public void replayDeadLetters(HttpServiceRequest request, HttpServiceResponder responder,
+                                @QueryParam("limit") @DefaultValue("100") Integer limit)
+    throws InterruptedException {
+    DeadLetterStore deadLetterStore = getDeadLetterStore();
+    int replayed = 0;
+    int rejected = 0;
+    for (DeadLetterStore.DeadLetter deadLetter : deadLetterStore.list(limit)) {
+      if (replay(deadLetterStore, deadLetter) == null) {
+        replayed++;
+      } else {
+        rejected++;
+      }
+    }
+    responder.sendJson(200, ImmutableMap.of("replayed", replayed, "rejected", rejected));
+  }
+
+  @POST
+  @Path("/deadletters/{entityId}/replay")
+  public void replayDeadLetter(HttpServiceRequest request, HttpServiceResponder responder,
+                               @PathParam("entityId") String entityId) throws InterruptedException {
+    EntityId id;
+    try {
+      id = EntityId.fromString(entityId);
+    } catch (IllegalArgumentException e) {
+      responder.sendError(400, String.format("Invalid entity id '%s': %s", entityId, e.getMessage()));
+      return;
+    }
+    DeadLetterStore deadLetterStore = getDeadLetterStore();
+    DeadLetterStore.DeadLetter deadLetter = deadLetterStore.get(id);
+    if (deadLetter == null) {
+      responder.sendError(404, String.format("No rejected metadata changes of entity '%s'", entityId));
+      return;
+    }
+    String errors = replay(deadLetterStore, deadLetter);
+    if (errors != null) {
+      responder.sendError(400, String.format("Navigator rejected metadata changes of entity '%s' again: %s",
+                                             entityId, errors));
+      return;
+    }
+    responder.sendStatus(200);
+  }
+
+  @GET
+  @Path("/offset")
+  public void getOffset(HttpServiceRequest request, HttpServiceResponder responder) {
+    // A null offset means that the audit topic is consumed from the beginning
+    responder.sendJson(200, Collections.singletonMap("offset", getOffsetStore().get()));
+  }
+
+  @POST
+  @Path("/offset/reset")
+  public void resetOffset(HttpServiceRequest request, HttpServiceResponder responder) {
+    getOffsetStore().reset();
+    responder.sendStatus(200);
+  }
+
+  @POST
+  @Path("/offset/seek")
+  public void seekOffset(HttpServiceRequest request, HttpServiceResponder responder,
+                         @QueryParam("messageId") String messageId, @QueryParam("timestamp") Long timestamp) {
+    if ((messageId == null) == (timestamp == null)) {
+      responder.sendError(400, "Exactly one of the query parameters 'messageId' and 'timestamp' must be provided");
+      return;
+    }
+    if (messageId != null && !AuditOffsetStore.isMessageId(messageId)) {
+      responder.sendError(400, String.format("Invalid message id '%s': must be a non-empty hex string", messageId));
+      return;
+    }
+    if (timestamp != null && timestamp < 0) {
+      responder.sendError(400, "Query parameter 'timestamp' must not be negative");
+      return;
+    }
+    if (messageId != null) {
+      // Consumption continues after the given message
+      getOffsetStore().set(messageId);
+    } else {
+      getOffsetStore().setTimestamp(timestamp);
+    }
+    responder.sendStatus(200);
+  }
+
+  @POST
+  @Path("/offset/latest")
+  public void skipToLatest(HttpServiceRequest request, HttpServiceResponder responder) {
+    // Skip all messages published so far
+    getOffsetStore().setTimestamp(System.currentTimeMillis());
+    responder.sendStatus(200);
+  }
+
+  private ResultsBatch<Map<String, Object>> searchNavigator(final MetadataQuery query) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    try {
+      return requestExecutor.execute(new Callable<ResultsBatch<Map<String, Object>>>() {
+        @Override
+        public ResultsBatch<Map<String, Object>> call() {
+          return navigatorClient.getEntityBatch(query);
+        }
+      });
+    } finally {
+      metrics.count("search.upstream.requests", 1);
+      metrics.count("search.upstream.time.ms",
+                    (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+  }
+
+  private AuditOffsetStore getOffsetStore() {
+    KeyValueTable table = getContext().getDataset(auditLogConfig.getOffsetDataset());
+    return new AuditOffsetStore(table);
+  }
+
+  private DeadLetterStore getDeadLetterStore() {
+    Table table = getContext().getDataset(navigatorConfig.getDeadLetterDataset());
+    return new DeadLetterStore(table);
+  }
+
+  /**
+   * Writes the stored changes of an entity to Navigator, removing them from the store if Navigator accepts them. The
+   * publisher removes stored changes that later changes override, and does not cache the state of entities with
+   * stored changes, so a replay neither reverts newer metadata nor leaves the publisher with a stale state.
+   *
+   * @return the errors reported by Navigator, or {@code null} if the changes were written
+   */
+  private String replay(DeadLetterStore deadLetterStore,
+                        DeadLetterStore.DeadLetter deadLetter) throws InterruptedException {
+    EntityId entityId = deadLetter.getEntityId();
+    final Entity entity;
+    try {
+      entity = NavigatorEntities.create(entityId, navigatorConfig.getNamespace());
+    } catch (UnsupportedEntityException e) {
+      // Cannot happen for entities stored by the publisher
+      LOG.warn("Ignoring rejected metadata changes of unsupported entity {}", entityId, e);
+      return e.getMessage();
+    }
+    NavigatorEntities.applyDelta(entity, deadLetter.getChanges());
+    ResultSet resultSet = requestExecutor.execute(new Callable<ResultSet>() {
+      @Override
+      public ResultSet call() {
+        return navigatorPlugin.write(entity);
+      }
+    });
+    if (resultSet.hasErrors()) {
+      deadLetterStore.add(entityId, new MetadataDelta(), resultSet.toString(), System.currentTimeMillis());
+      return resultSet.toString();
+    }
+    deadLetterStore.remove(entityId);
+    return null;
+  }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs requests of the Navigator SDK on a bounded pool of threads and abandons those that do not complete in time.
+ * The SDK sends its requests through {@link java.net.HttpURLConnection} without a connect or read timeout and has no
+ * setting for either, so a hung Navigator would otherwise block the calling thread forever. The size of the pool
+ * bounds the number of concurrent connections to Navigator.
+ * <p>
+ * An abandoned request keeps its pool thread until the connection fails or completes, so while Navigator is hung,
+ * later requests wait for a thread and time out as well.
+ * </p>
+ */
+public final class NavigatorRequestExecutor implements Closeable {
+  private final ExecutorService executor;
+  private final long timeoutMillis;
+
+  public NavigatorRequestExecutor(NavigatorConfig navigatorConfig) {
+    this(navigatorConfig.getMaxConnections(), navigatorConfig.getRequestTimeoutMs());
+  }
+
+  /**
+   * @param maxConnections maximum number of concurrent requests
+   * @param timeoutMillis time after which a request that has not completed is abandoned
+   */
+  public NavigatorRequestExecutor(int maxConnections, long timeoutMillis) {
+    this.executor = Executors.newFixedThreadPool(Math.max(1, maxConnections), new ThreadFactoryBuilder()
+      .setNameFormat("navigator-request-%d")
+      .setDaemon(true)
+      .build());
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Runs a request to Navigator.
+   *
+   * @return the result of the request
+   * @throws UncheckedTimeoutException if the request did not complete within the timeout
+   * @throws InterruptedException if interrupted while waiting for the request to complete
+   */
+  public <T> T execute(Callable<T> request) throws InterruptedException {
+    Future<T> future = executor.submit(request);
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new UncheckedTimeoutException(
+        String.format("Request to Navigator did not complete within %d ms", timeoutMillis), e);
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.TxRunnable;
+import co.cask.cdap.api.data.DatasetContext;
+import co.cask.cdap.api.dataset.lib.CloseableIterator;
+import co.cask.cdap.api.dataset.lib.KeyValueTable;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.api.messaging.Message;
+import co.cask.cdap.api.messaging.MessageFetcher;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.worker.AbstractWorker;
+import co.cask.cdap.api.worker.WorkerContext;
+import co.cask.cdap.metadata.config.AuditLogConfig;
+import co.cask.cdap.metadata.config.NavigatorAppConfig;
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import co.cask.cdap.proto.id.EntityId;
+import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Worker that seeds Navigator with the metadata of CDAP entities, much faster than the {@link MetadataFlow} replaying
+ * the audit topic one message at a time. The audit topic is read from the beginning and the changes are coalesced in
+ * memory into the net change of each entity. Whenever the changes of {@code resyncChunkSize} entities are held, and
+ * at the end of the topic, they are written to Navigator in large parallel batches, after which the offset of the
+ * {@link AuditLogConsumer} is set to the last message read, so that the flow continues from there.
+ * <p>
+ * Only changes still retained in the audit topic are written, so entities whose audit messages expired are not seeded.
+ * The worker exits once it has read the whole topic. The {@link MetadataFlow} and the {@link NavigatorPipelineWorker}
+ * must be stopped while it runs, since they keep their offset in memory and would overwrite the offset set by the
+ * resync. The worker fails if it finds that the offset was moved by someone else while it ran.
+ * </p>
+ */
+public final class NavigatorResyncWorker extends AbstractWorker {
+  public static final String NAME = "NavigatorResync";
+
+  private static final Logger LOG = LoggerFactory.getLogger(NavigatorResyncWorker.class);
+  private static final Gson GSON = new Gson();
+  private static final int FETCH_LIMIT = 10000;
+
+  private AuditLogConfig auditLogConfig;
+  private NavigatorConfig navigatorConfig;
+  private Metrics metrics;
+  private volatile boolean stopped;
+
+  @Override
+  protected void configure() {
+    setName(NAME);
+    setDescription("Worker that writes the metadata of all CDAP entities found in the audit topic to Navigator");
+    setInstances(1);
+  }
+
+  @Override
+  public void initialize(WorkerContext context) throws Exception {
+    super.initialize(context);
+    NavigatorAppConfig appConfig = GSON.fromJson(context.getApplicationSpecification().getConfiguration(),
+                                                 NavigatorAppConfig.class);
+    auditLogConfig = appConfig.getAuditLogConfig();
+    navigatorConfig = appConfig.getNavigatorConfig();
+  }
+
+  @Override
+  public void run() {
+    NavigatorPlugin navigatorPlugin = NavigatorPlugin.fromConfigMap(NavigatorConfigConverter.convert(navigatorConfig));
+    RetryPolicy retryPolicy = new RetryPolicy(navigatorConfig.getMaxRetries(), navigatorConfig.getRetryBaseDelayMs(),
+                                              navigatorConfig.getRetryMaxDelayMs());
+    CircuitBreaker circuitBreaker = new CircuitBreaker(navigatorConfig.getCircuitBreakerFailureRate(),
+                                                       navigatorConfig.getCircuitBreakerWindow(),
+                                                       navigatorConfig.getCircuitBreakerOpenMs());
+    try (NavigatorRequestExecutor requestExecutor = new NavigatorRequestExecutor(navigatorConfig);
+         NavigatorBatchWriter batchWriter = new NavigatorBatchWriter(
+           navigatorPlugin, requestExecutor, navigatorConfig.getResyncBatchSize(), Long.MAX_VALUE,
+           navigatorConfig.getResyncMaxInFlightWrites(), retryPolicy, circuitBreaker, metrics)) {
+      // Every entity is written once per chunk at most, so there is nothing to cache
+      resync(new MetadataChangeWriter(batchWriter, new PushedStateCache(0), navigatorConfig.getNamespace(), metrics));
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * Reads the audit topic from the beginning and writes the coalesced changes to Navigator in chunks.
+   */
+  private void resync(MetadataChangeWriter changeWriter) throws Exception {
+    MessageFetcher messageFetcher = getContext().getMessageFetcher();
+    MetadataDeltaCoalescer coalescer = new MetadataDeltaCoalescer();
+    int chunkSize = Math.max(1, navigatorConfig.getResyncChunkSize());
+    String checkpoint = getOffset();
+    String offset = null;
+    int fetched;
+    long total = 0;
+    long entities = 0;
+    do {
+      fetched = 0;
+      try (CloseableIterator<Message> messages = messageFetcher.fetch(auditLogConfig.getNamespace(),
+                                                                      auditLogConfig.getTopic(), FETCH_LIMIT, offset)) {
+        while (messages.hasNext()) {
+          Message message = messages.next();
+          offset = message.getId();
+          fetched++;
+
+          byte[] payload = message.getPayload();
+          try {
+            AuditMessageDecoder.Header header = AuditMessageDecoder.decodeHeader(payload);
+            if (NavigatorPublisher.SUPPORTED_AUDIT_TYPES.contains(header.getType())
+              && NavigatorPublisher.SUPPORTED_ENTITY_TYPES.contains(header.getEntityId().getEntityType())) {
+              coalescer.add(AuditMessageDecoder.decode(payload));
+            }
+          } catch (JsonParseException e) {
+            LOG.warn("Ignoring malformed audit message with id {}.", message.getId(), e);
+          }
+        }
+      }
+      total += fetched;
+      metrics.count("resync.messages", fetched);
+      if (stopped) {
+        LOG.info("Navigator resync stopped after {} audit messages.", total);
+        return;
+      }
+      // Messages beyond the last checkpoint are read again if the worker is restarted, which is harmless
+      if (offset != null && (fetched < FETCH_LIMIT || coalescer.size() >= chunkSize)) {
+        entities += writeToNavigator(changeWriter, coalescer.drain());
+        checkpoint = setOffset(checkpoint, offset);
+        LOG.debug("Read {} audit messages, wrote changes of {} entities so far.", total, entities);
+      }
+    } while (fetched == FETCH_LIMIT);
+    LOG.info("Navigator resync completed up to audit message {} after {} audit messages changing {} entities.",
+             offset, total, entities);
+  }
+
+  /**
+   * Writes the coalesced changes to Navigator and stores the rejected ones in the dead letter dataset.
+   *
+   * @return number of entities written
+   */
+  private int writeToNavigator(final MetadataChangeWriter changeWriter,
+                               Map<EntityId, MetadataDelta> changes) throws Exception {
+    final MetadataChangeWriter.Result result = changeWriter.write(changes);
+    metrics.count("resync.entities", result.getEntities());
+    LOG.info("Wrote metadata of {} entities to Navigator, {} were rejected.", result.getEntities(),
+             result.getRejected());
+    if (!changeWriter.needsDeadLetterStore(result)) {
+      changeWriter.complete(result, null);
+      return result.getEntities();
+    }
+    getContext().execute(new TxRunnable() {
+      @Override
+      public void run(DatasetContext context) throws Exception {
+        Table deadLetters = context.getDataset(navigatorConfig.getDeadLetterDataset());
+        changeWriter.complete(result, new DeadLetterStore(deadLetters));
+      }
+    });
+    return result.getEntities();
+  }
+
+  @Nullable
+  private String getOffset() throws Exception {
+    final AtomicReference<String> offset = new AtomicReference<>();
+    getContext().execute(new TxRunnable() {
+      @Override
+      public void run(DatasetContext context) throws Exception {
+        KeyValueTable offsetTable = context.getDataset(auditLogConfig.getOffsetDataset());
+        offset.set(new AuditOffsetStore(offsetTable).get());
+      }
+    });
+    return offset.get();
+  }
+
+  /**
+   * Sets the offset of the audit consumer, unless it was moved since the resync last set it.
+   *
+   * @param expected the offset the resync found or last set
+   * @return the new offset
+   */
+  private String setOffset(@Nullable final String expected, final String offset) throws Exception {
+    getContext().execute(new TxRunnable() {
+      @Override
+      public void run(DatasetContext context) throws Exception {
+        KeyValueTable offsetTable = context.getDataset(auditLogConfig.getOffsetDataset());
+        AuditOffsetStore offsetStore = new AuditOffsetStore(offsetTable);
+        String current = offsetStore.get();
+        if (!Objects.equal(expected, current)) {
+          throw new IllegalStateException(String.format(
+            "The offset in the audit topic was moved from %s to %s while the resync was running. Stop the %s and "
+              + "the %s before running the resync.", expected, current, MetadataFlow.FLOW_NAME,
+            NavigatorPipelineWorker.NAME));
+        }
+        offsetStore.set(offset);
+      }
+    });
+    return offset;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+/**
+ * Decides which ticks of the {@link AuditLogConsumer} poll the audit topic. The topic is polled on every tick as long
+ * as polls return messages. Once a poll finds no new message, the delay before the next poll doubles with every empty
+ * poll, from a minimum up to a maximum. Polls happen on ticks only, so the tick interval is the lower bound of the
+ * delay, and an idle consumer never runs more than one transaction per tick.
+ */
+public final class PollScheduler {
+  private final long minDelayMillis;
+  private final long maxDelayMillis;
+  private long delayMillis;
+  private long nextPollTime;
+
+  /**
+   * @param minDelayMillis delay before polling again after a poll found no new messages
+   * @param maxDelayMillis maximum delay between two polls of an idle topic
+   */
+  public PollScheduler(long minDelayMillis, long maxDelayMillis) {
+    this.minDelayMillis = minDelayMillis;
+    this.maxDelayMillis = Math.max(minDelayMillis, maxDelayMillis);
+    this.delayMillis = minDelayMillis;
+    this.nextPollTime = 0L;
+  }
+
+  /**
+   * @return whether a tick at the given time should poll the topic
+   */
+  public boolean isDue(long now) {
+    return now >= nextPollTime;
+  }
+
+  /**
+   * Schedules the next poll after a poll at the given time.
+   *
+   * @param now time of the poll
+   * @param consumed whether the poll returned any message
+   */
+  public void polled(long now, boolean consumed) {
+    if (consumed) {
+      // Poll again on the next tick
+      delayMillis = minDelayMillis;
+      nextPollTime = 0L;
+    } else {
+      // Back off exponentially while the topic is idle
+      nextPollTime = now + delayMillis;
+      delayMillis = Math.min(maxDelayMillis, delayMillis * 2);
+    }
+  }
+}
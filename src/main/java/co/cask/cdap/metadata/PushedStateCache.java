@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of the tags and properties last written to Navigator for an entity, keyed by the id of the
+ * Navigator {@link Entity}. It is used to drop the parts of a {@link MetadataDelta} that Navigator already reflects,
+ * such as changes replayed from the audit topic or identical tags re-applied on redeploys.
+ * <p>
+ * Only the tags and properties that were written by this cache's owner are tracked, and changes made to Navigator by
+ * other clients are not observed, so an entry may only be used to suppress writes that are known to be redundant.
+ * </p>
+ * This class is not thread safe.
+ */
+public final class PushedStateCache {
+  private final Cache<String, PushedState> cache;
+
+  /**
+   * @param maxSize maximum number of entities to remember; {@code 0} disables the cache
+   */
+  public PushedStateCache(long maxSize) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+  }
+
+  /**
+   * Removes from the given delta all changes that are already reflected by the state last written for the entity.
+   *
+   * @param entityId id of the Navigator entity
+   * @param delta the delta to trim
+   * @return {@code true} if nothing is left to write for the entity
+   */
+  public boolean trim(String entityId, MetadataDelta delta) {
+    PushedState state = cache.getIfPresent(entityId);
+    if (state != null) {
+      state.trim(delta);
+    }
+    return delta.isEmpty();
+  }
+
+  /**
+   * Records that the given delta was written to Navigator for the entity.
+   */
+  public void update(String entityId, MetadataDelta delta) {
+    // Not counted as a hit or miss, since the entity was already looked up by trim
+    PushedState state = cache.asMap().get(entityId);
+    if (state == null) {
+      state = new PushedState();
+      cache.put(entityId, state);
+    }
+    state.apply(delta);
+  }
+
+  /**
+   * Removes the state of the entity, e.g. when the outcome of a write is unknown.
+   */
+  public void invalidate(String entityId) {
+    cache.invalidate(entityId);
+  }
+
+  /**
+   * @return number of entities in the cache
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Tags and properties known to be present or absent in Navigator for an entity.
+   */
+  private static final class PushedState {
+    private final Set<String> tags = new HashSet<>();
+    private final Set<String> removedTags = new HashSet<>();
+    private final Map<String, String> properties = new HashMap<>();
+    private final Set<String> removedProperties = new HashSet<>();
+
+    void trim(MetadataDelta delta) {
+      delta.getAddedTags().removeAll(tags);
+      delta.getDeletedTags().removeAll(removedTags);
+      Iterator<Map.Entry<String, String>> addedProperties = delta.getAddedProperties().entrySet().iterator();
+      while (addedProperties.hasNext()) {
+        Map.Entry<String, String> property = addedProperties.next();
+        if (Objects.equal(property.getValue(), properties.get(property.getKey()))) {
+          addedProperties.remove();
+        }
+      }
+      delta.getDeletedProperties().removeAll(removedProperties);
+    }
+
+    void apply(MetadataDelta delta) {
+      tags.removeAll(delta.getDeletedTags());
+      removedTags.addAll(delta.getDeletedTags());
+      removedTags.removeAll(delta.getAddedTags());
+      tags.addAll(delta.getAddedTags());
+
+      for (String key : delta.getDeletedProperties()) {
+        properties.remove(key);
+        removedProperties.add(key);
+      }
+      for (Map.Entry<String, String> property : delta.getAddedProperties().entrySet()) {
+        removedProperties.remove(property.getKey());
+        properties.put(property.getKey(), property.getValue());
+      }
+    }
+  }
+}
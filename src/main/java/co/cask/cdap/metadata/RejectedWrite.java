@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.base.Objects;
+
+/**
+ * An {@link Entity} that Navigator rejected, together with the errors it reported. Retrying such a write does not
+ * succeed, so it is reported instead of failing the whole batch.
+ */
+public final class RejectedWrite {
+  private final Entity entity;
+  private final String errors;
+
+  public RejectedWrite(Entity entity, String errors) {
+    this.entity = entity;
+    this.errors = errors;
+  }
+
+  public Entity getEntity() {
+    return entity;
+  }
+
+  public String getErrors() {
+    return errors;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("entity", entity.getName())
+      .add("errors", errors)
+      .toString();
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential back-off with full jitter for retrying transient failures of Navigator writes. The delay before retry
+ * {@code n} is chosen uniformly at random between zero and {@code min(maxDelayMs, baseDelayMs * 2^n)}, so that
+ * publishers retrying at the same time do not hit Navigator in lock step.
+ */
+public final class RetryPolicy {
+  private final int maxRetries;
+  private final long baseDelayMs;
+  private final long maxDelayMs;
+
+  /**
+   * @param maxRetries maximum number of retries after the initial attempt
+   * @param baseDelayMs upper bound of the delay before the first retry
+   * @param maxDelayMs upper bound of the delay before any retry
+   */
+  public RetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs) {
+    this.maxRetries = Math.max(0, maxRetries);
+    this.baseDelayMs = Math.max(1, baseDelayMs);
+    this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+  }
+
+  /**
+   * @param retry number of retries already made
+   * @return whether another retry should be made
+   */
+  public boolean shouldRetry(int retry) {
+    return retry < maxRetries;
+  }
+
+  /**
+   * @param retry number of retries already made
+   * @return delay in milliseconds to wait before the next retry
+   */
+  public long getDelayMillis(int retry) {
+    // Cap the shift so that the upper bound cannot overflow
+    long bound = Math.min(maxDelayMs, baseDelayMs << Math.min(retry, 30));
+    return ThreadLocalRandom.current().nextLong(bound + 1);
+  }
+}
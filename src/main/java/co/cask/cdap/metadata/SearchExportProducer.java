@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.Transactional;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.service.http.HttpContentProducer;
+import com.cloudera.nav.sdk.client.MetadataQuery;
+import com.cloudera.nav.sdk.client.NavApiCient;
+import com.cloudera.nav.sdk.client.ResultsBatch;
+import com.google.common.base.Objects;
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Streams all results of a Navigator search as newline-delimited JSON, one entity per line. The pages of the search
+ * are requested one at a time while the response is written, following the cursor mark returned with each page, so
+ * that at most one page is held in memory regardless of the number of results.
+ */
+final class SearchExportProducer extends HttpContentProducer {
+  private static final Logger LOG = LoggerFactory.getLogger(SearchExportProducer.class);
+  private static final Gson GSON = new Gson();
+
+  private final NavApiCient navigatorClient;
+  private final NavigatorRequestExecutor requestExecutor;
+  private final Metrics metrics;
+  private final String query;
+  private final int pageSize;
+  private String cursorMark;
+  private boolean done;
+  private long exported;
+
+  SearchExportProducer(NavApiCient navigatorClient, NavigatorRequestExecutor requestExecutor, Metrics metrics,
+                       String query, int pageSize, String cursorMark) {
+    this.navigatorClient = navigatorClient;
+    this.requestExecutor = requestExecutor;
+    this.metrics = metrics;
+    this.query = query;
+    this.pageSize = pageSize;
+    this.cursorMark = cursorMark;
+  }
+
+  @Override
+  public ByteBuffer nextChunk(Transactional transactional) throws Exception {
+    if (done) {
+      // An empty chunk ends the response
+      return ByteBuffer.allocate(0);
+    }
+    final MetadataQuery pageQuery = new MetadataQuery(query, pageSize, cursorMark);
+    ResultsBatch<Map<String, Object>> page = requestExecutor.execute(
+      new Callable<ResultsBatch<Map<String, Object>>>() {
+        @Override
+        public ResultsBatch<Map<String, Object>> call() {
+          return navigatorClient.getEntityBatch(pageQuery);
+        }
+      });
+    List<Map<String, Object>> results = page.getResults();
+    String nextCursorMark = page.getCursorMark();
+    // Navigator returns the cursor mark it was given once all results were returned
+    done = results == null || results.isEmpty() || nextCursorMark == null
+      || Objects.equal(nextCursorMark, cursorMark);
+    cursorMark = nextCursorMark;
+    if (results == null || results.isEmpty()) {
+      return ByteBuffer.allocate(0);
+    }
+
+    StringBuilder chunk = new StringBuilder();
+    for (Map<String, Object> result : results) {
+      chunk.append(GSON.toJson(result)).append('\n');
+    }
+    exported += results.size();
+    metrics.count("search.export.entities", results.size());
+    return ByteBuffer.wrap(chunk.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void onFinish() throws Exception {
+    LOG.debug("Exported {} entities matching query '{}'.", exported, query);
+  }
+
+  @Override
+  public void onError(Throwable failureCause) {
+    LOG.warn("Export of entities matching query '{}' failed after {} entities at cursor mark '{}'.",
+             query, exported, cursorMark, failureCause);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Put;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.proto.id.EntityId;
+import com.google.gson.Gson;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Stores the pending metadata changes of entities in a {@link Table} while Navigator is unreachable, so that the
+ * publisher keeps consuming audit messages during an outage. There is one row per CDAP entity, and later changes of a
+ * spilled entity are merged into its row, so the size of the store is bounded by the number of changed entities.
+ *
+ * Rows are keyed by entity only, so that the changes of an entity are found by whichever publisher instance processes
+ * its later changes, even after the number of instances changed. Each instance drains the rows of the entities that
+ * are routed to it by the current number of instances. Each instance counts the rows it adds and removes in a counter
+ * row of its own, so that instances never conflict on a shared counter, and the size of the store is the sum of these
+ * counters.
+ */
+public final class SpillStore {
+  private static final Gson GSON = new Gson();
+  private static final byte[] CHANGES = Bytes.toBytes("changes");
+  private static final byte[] COUNT = Bytes.toBytes("count");
+  private static final String ENTITY_PREFIX = "e:";
+  private static final byte[] ENTITY_START = Bytes.toBytes(ENTITY_PREFIX);
+  private static final byte[] ENTITY_STOP = Bytes.stopKeyForPrefix(ENTITY_START);
+  private static final String COUNTER_PREFIX = "c:";
+  private static final byte[] COUNTER_START = Bytes.toBytes(COUNTER_PREFIX);
+  private static final byte[] COUNTER_STOP = Bytes.stopKeyForPrefix(COUNTER_START);
+
+  private final Table table;
+  private final byte[] counterKey;
+
+  /**
+   * @param table the table to store the changes in
+   * @param instanceId id of the publisher instance using this store
+   */
+  public SpillStore(Table table, int instanceId) {
+    this.table = table;
+    this.counterKey = Bytes.toBytes(COUNTER_PREFIX + instanceId);
+  }
+
+  /**
+   * Merges changes of an entity into its spilled changes.
+   *
+   * @param maxEntities maximum number of spilled entities
+   * @return {@code false} if the entity is not spilled yet and {@code maxEntities} entities are spilled already
+   */
+  public boolean add(EntityId entityId, MetadataDelta delta, long maxEntities) {
+    byte[] rowKey = getRowKey(entityId);
+    MetadataDelta changes = toDelta(table.get(rowKey));
+    if (changes == null) {
+      if (size() >= maxEntities) {
+        return false;
+      }
+      changes = delta;
+      updateCount(1);
+    } else {
+      changes.merge(delta);
+    }
+    table.put(new Put(rowKey).add(CHANGES, GSON.toJson(changes)));
+    return true;
+  }
+
+  /**
+   * Removes the spilled changes of an entity.
+   *
+   * @return the removed changes, or {@code null} if the entity was not spilled
+   */
+  @Nullable
+  public MetadataDelta remove(EntityId entityId) {
+    byte[] rowKey = getRowKey(entityId);
+    MetadataDelta changes = toDelta(table.get(rowKey));
+    if (changes != null) {
+      table.delete(rowKey);
+      updateCount(-1);
+    }
+    return changes;
+  }
+
+  /**
+   * Removes and returns the spilled changes of up to {@code limit} entities that are routed to the given instance,
+   * ordered by entity id. At most {@code limit} rows per instance are scanned, so that a tick does not read the whole
+   * store while it mostly holds the entities of other instances.
+   *
+   * @param instanceId id of the publisher instance draining the store
+   * @param instances current number of publisher instances
+   */
+  public Map<EntityId, MetadataDelta> take(int limit, int instanceId, int instances) {
+    Map<EntityId, MetadataDelta> changes = new LinkedHashMap<>();
+    long maxScanned = (long) limit * instances;
+    long scanned = 0L;
+    try (Scanner scanner = table.scan(ENTITY_START, ENTITY_STOP)) {
+      Row row;
+      while (changes.size() < limit && scanned < maxScanned && (row = scanner.next()) != null) {
+        scanned++;
+        EntityId entityId = EntityId.fromString(Bytes.toString(row.getRow()).substring(ENTITY_PREFIX.length()));
+        if (NavigatorPublisher.getInstance(entityId, instances) == instanceId) {
+          changes.put(entityId, toDelta(row));
+        }
+      }
+    }
+    for (EntityId entityId : changes.keySet()) {
+      table.delete(getRowKey(entityId));
+    }
+    updateCount(-changes.size());
+    return changes;
+  }
+
+  /**
+   * @return number of spilled entities
+   */
+  public long size() {
+    long size = 0L;
+    try (Scanner scanner = table.scan(COUNTER_START, COUNTER_STOP)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        size += row.getLong(COUNT, 0L);
+      }
+    }
+    return size;
+  }
+
+  private void updateCount(long delta) {
+    if (delta != 0) {
+      // May become negative if this instance removes entities that other instances added
+      table.put(counterKey, COUNT, table.get(counterKey).getLong(COUNT, 0L) + delta);
+    }
+  }
+
+  private static byte[] getRowKey(EntityId entityId) {
+    return Bytes.toBytes(ENTITY_PREFIX + entityId.toString());
+  }
+
+  @Nullable
+  private static MetadataDelta toDelta(Row row) {
+    return row.isEmpty() ? null : GSON.fromJson(row.getString(CHANGES), MetadataDelta.class);
+  }
+}
@@ -27,17 +27,29 @@ public class AuditLogConfig {
   private static final String DEFAULT_TOPIC = "audit";
   private static final String DEFAULT_OFFSET_DATASET = "auditOffset";
   private static final int DEFAULT_LIMIT = 100;
+  private static final int DEFAULT_MAX_LIMIT = 5000;
+  private static final int DEFAULT_CHECKPOINT_INTERVAL = 1;
+  private static final long DEFAULT_MIN_POLL_DELAY_MS = 1000L;
+  private static final long DEFAULT_MAX_POLL_DELAY_MS = 5000L;
 
   private final String namespace;
   private final String topic;
   private final String offsetDataset;
   private final Integer limit;
+  private final Integer maxLimit;
+  private final Integer checkpointInterval;
+  private final Long minPollDelayMs;
+  private final Long maxPollDelayMs;
 
   public AuditLogConfig() {
     this.namespace = null;
     this.topic = null;
     this.offsetDataset = null;
     this.limit = null;
+    this.maxLimit = null;
+    this.checkpointInterval = null;
+    this.minPollDelayMs = null;
+    this.maxPollDelayMs = null;
   }
 
   public AuditLogConfig(String namespace, String topic, String offsetDataset, Integer limit) {
@@ -45,6 +57,10 @@ public class AuditLogConfig {
     this.topic = topic;
     this.offsetDataset = offsetDataset;
     this.limit = limit;
+    this.maxLimit = null;
+    this.checkpointInterval = null;
+    this.minPollDelayMs = null;
+    this.maxPollDelayMs = null;
   }
 
   public String getNamespace() {
@@ -59,10 +75,42 @@ public class AuditLogConfig {
     return Strings.isNullOrEmpty(offsetDataset) ? DEFAULT_OFFSET_DATASET : offsetDataset;
   }
 
+  /**
+   * @return number of messages fetched in a single read when the consumer starts
+   */
   public int getLimit() {
     return limit != null ? limit : DEFAULT_LIMIT;
   }
 
+  /**
+   * @return maximum number of messages fetched in a single read while the consumer catches up on a backlog
+   */
+  public int getMaxLimit() {
+    return maxLimit != null ? maxLimit : Math.max(DEFAULT_MAX_LIMIT, getLimit());
+  }
+
+  /**
+   * @return minimum number of consumed messages after which the offset is written to the offset dataset
+   */
+  public int getCheckpointInterval() {
+    return checkpointInterval != null ? checkpointInterval : DEFAULT_CHECKPOINT_INTERVAL;
+  }
+
+  /**
+   * @return delay in milliseconds before polling the audit topic again after a poll found no new messages. Values
+   * below the one second interval at which the consumer flowlet is triggered have no effect.
+   */
+  public long getMinPollDelayMs() {
+    return minPollDelayMs != null ? minPollDelayMs : DEFAULT_MIN_POLL_DELAY_MS;
+  }
+
+  /**
+   * @return maximum delay in milliseconds between two polls of an idle audit topic
+   */
+  public long getMaxPollDelayMs() {
+    return maxPollDelayMs != null ? maxPollDelayMs : Math.max(DEFAULT_MAX_POLL_DELAY_MS, getMinPollDelayMs());
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
@@ -70,6 +118,10 @@ public class AuditLogConfig {
       .add("topic", getTopic())
       .add("offsetDataset", getOffsetDataset())
       .add("limit", getLimit())
+      .add("maxLimit", getMaxLimit())
+      .add("checkpointInterval", getCheckpointInterval())
+      .add("minPollDelayMs", getMinPollDelayMs())
+      .add("maxPollDelayMs", getMaxPollDelayMs())
       .toString();
   }
 }
@@ -18,18 +18,53 @@ package co.cask.cdap.metadata.config;
 
 import co.cask.cdap.api.Config;
 import co.cask.cdap.metadata.NavigatorApp;
+import com.google.common.base.Strings;
 
 /**
  * Application Config for {@link NavigatorApp}.
  */
 public class NavigatorAppConfig extends Config {
+  private static final int DEFAULT_PUBLISHER_INSTANCES = 1;
+  private static final int DEFAULT_WORKER_THREADS = 4;
+  private static final int DEFAULT_WORKER_QUEUE_SIZE = 10000;
+
+  /**
+   * How audit messages are moved from the audit topic to Navigator.
+   */
+  public enum PipelineMode {
+    // Consumer and publisher flowlets connected by a transactional queue
+    FLOW,
+    // A single worker that fetches audit messages and hands them to its own publisher threads in memory
+    WORKER
+  }
 
   private final NavigatorConfig navigatorConfig;
   private final AuditLogConfig auditLogConfig;
 
+  // Optional parameters
+  private final Integer publisherInstances;
+  private final String pipelineMode;
+  private final Integer workerThreads;
+  private final Integer workerQueueSize;
+
   public NavigatorAppConfig(NavigatorConfig navigatorConfig, AuditLogConfig auditLogConfig) {
+    this(navigatorConfig, auditLogConfig, null);
+  }
+
+  public NavigatorAppConfig(NavigatorConfig navigatorConfig, AuditLogConfig auditLogConfig,
+                            Integer publisherInstances) {
+    this(navigatorConfig, auditLogConfig, publisherInstances, null, null, null);
+  }
+
+  public NavigatorAppConfig(NavigatorConfig navigatorConfig, AuditLogConfig auditLogConfig,
+                            Integer publisherInstances, String pipelineMode, Integer workerThreads,
+                            Integer workerQueueSize) {
     this.navigatorConfig = navigatorConfig;
     this.auditLogConfig = auditLogConfig;
+    this.publisherInstances = publisherInstances;
+    this.pipelineMode = pipelineMode;
+    this.workerThreads = workerThreads;
+    this.workerQueueSize = workerQueueSize;
   }
 
   public NavigatorConfig getNavigatorConfig() {
@@ -39,4 +74,33 @@ public class NavigatorAppConfig extends Config {
   public AuditLogConfig getAuditLogConfig() {
     return auditLogConfig;
   }
+
+  /**
+   * @return number of publisher flowlet instances writing to Navigator concurrently
+   */
+  public int getPublisherInstances() {
+    return publisherInstances == null ? DEFAULT_PUBLISHER_INSTANCES : publisherInstances;
+  }
+
+  /**
+   * @return how audit messages are moved to Navigator, {@link PipelineMode#FLOW} by default
+   * @throws IllegalArgumentException if the configured mode is unknown
+   */
+  public PipelineMode getPipelineMode() {
+    return Strings.isNullOrEmpty(pipelineMode) ? PipelineMode.FLOW : PipelineMode.valueOf(pipelineMode.toUpperCase());
+  }
+
+  /**
+   * @return number of threads writing to Navigator in the {@link PipelineMode#WORKER} mode
+   */
+  public int getWorkerThreads() {
+    return workerThreads == null ? DEFAULT_WORKER_THREADS : workerThreads;
+  }
+
+  /**
+   * @return maximum number of audit records waiting for each publisher thread in the {@link PipelineMode#WORKER} mode
+   */
+  public int getWorkerQueueSize() {
+    return workerQueueSize == null ? DEFAULT_WORKER_QUEUE_SIZE : workerQueueSize;
+  }
 }
@@ -28,6 +28,27 @@ public class NavigatorConfig {
   private static final int DEFAULT_NAVIGATOR_PORT = 7187;
   private static final String DEFAULT_NAVIGATOR_NAMESPACE = "CDAP";
   private static final String DEFAULT_FILE_FORMAT = "JSON";
+  private static final int DEFAULT_BATCH_SIZE = 100;
+  private static final long DEFAULT_BATCH_SIZE_BYTES = 1024 * 1024;
+  private static final int DEFAULT_MAX_IN_FLIGHT_WRITES = 4;
+  private static final long DEFAULT_PUSHED_STATE_CACHE_SIZE = 10000L;
+  private static final long DEFAULT_REQUEST_TIMEOUT_MS = 60000L;
+  private static final int DEFAULT_MAX_CONNECTIONS = 8;
+  private static final int DEFAULT_MAX_RETRIES = 3;
+  private static final long DEFAULT_RETRY_BASE_DELAY_MS = 500L;
+  private static final long DEFAULT_RETRY_MAX_DELAY_MS = 5000L;
+  private static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 0.5;
+  private static final int DEFAULT_CIRCUIT_BREAKER_WINDOW = 20;
+  private static final long DEFAULT_CIRCUIT_BREAKER_OPEN_MS = 30000L;
+  private static final String DEFAULT_DEAD_LETTER_DATASET = "navigatorDeadLetters";
+  private static final int DEFAULT_RESYNC_BATCH_SIZE = 1000;
+  private static final int DEFAULT_RESYNC_MAX_IN_FLIGHT_WRITES = 16;
+  private static final int DEFAULT_RESYNC_CHUNK_SIZE = 100000;
+  private static final int DEFAULT_SEARCH_CACHE_SIZE = 1000;
+  private static final long DEFAULT_SEARCH_CACHE_TTL_MS = 30000L;
+  private static final String DEFAULT_SPILL_DATASET = "navigatorSpill";
+  private static final long DEFAULT_SPILL_MAX_ENTITIES = 100000L;
+  private static final int DEFAULT_SPILL_DRAIN_BATCH_SIZE = 1000;
 
   private final String navigatorHostName;
   private final String username;
@@ -41,6 +62,27 @@ public class NavigatorConfig {
   private final String fileFormat;
   private final String navigatorURL;
   private final String metadataParentURI;
+  private final Integer batchSize;
+  private final Long batchSizeBytes;
+  private final Integer maxInFlightWrites;
+  private final Long pushedStateCacheSize;
+  private final Long requestTimeoutMs;
+  private final Integer maxConnections;
+  private final Integer maxRetries;
+  private final Long retryBaseDelayMs;
+  private final Long retryMaxDelayMs;
+  private final Double circuitBreakerFailureRate;
+  private final Integer circuitBreakerWindow;
+  private final Long circuitBreakerOpenMs;
+  private final String deadLetterDataset;
+  private final Integer resyncBatchSize;
+  private final Integer resyncMaxInFlightWrites;
+  private final Integer resyncChunkSize;
+  private final Integer searchCacheSize;
+  private final Long searchCacheTtlMs;
+  private final String spillDataset;
+  private final Long spillMaxEntities;
+  private final Integer spillDrainBatchSize;
 
   public NavigatorConfig(String navigatorHostName, String username, String password, Integer navigatorPort,
                          Boolean autocommit, String namespace, String applicationURL, String fileFormat,
@@ -55,6 +97,27 @@ public class NavigatorConfig {
     this.fileFormat = fileFormat;
     this.navigatorURL = navigatorURL;
     this.metadataParentURI = metadataParentURI;
+    this.batchSize = null;
+    this.batchSizeBytes = null;
+    this.maxInFlightWrites = null;
+    this.pushedStateCacheSize = null;
+    this.requestTimeoutMs = null;
+    this.maxConnections = null;
+    this.maxRetries = null;
+    this.retryBaseDelayMs = null;
+    this.retryMaxDelayMs = null;
+    this.circuitBreakerFailureRate = null;
+    this.circuitBreakerWindow = null;
+    this.circuitBreakerOpenMs = null;
+    this.deadLetterDataset = null;
+    this.resyncBatchSize = null;
+    this.resyncMaxInFlightWrites = null;
+    this.resyncChunkSize = null;
+    this.searchCacheSize = null;
+    this.searchCacheTtlMs = null;
+    this.spillDataset = null;
+    this.spillMaxEntities = null;
+    this.spillDrainBatchSize = null;
   }
 
   public NavigatorConfig(String navigatorHostName, String username, String password) {
@@ -122,6 +185,155 @@ public class NavigatorConfig {
     return autocommit == null ? true : autocommit;
   }
 
+  /**
+   * @return maximum number of entities sent to Navigator in a single write
+   */
+  public int getBatchSize() {
+    return batchSize == null ? DEFAULT_BATCH_SIZE : batchSize;
+  }
+
+  /**
+   * @return approximate maximum size, in bytes, of the metadata sent to Navigator in a single write, as estimated by
+   * {@link co.cask.cdap.metadata.MetadataDelta#getSizeBytes()} for the coalesced changes of each entity
+   */
+  public long getBatchSizeBytes() {
+    return batchSizeBytes == null ? DEFAULT_BATCH_SIZE_BYTES : batchSizeBytes;
+  }
+
+  /**
+   * @return maximum number of concurrent writes to Navigator issued by a single publisher
+   */
+  public int getMaxInFlightWrites() {
+    return maxInFlightWrites == null ? DEFAULT_MAX_IN_FLIGHT_WRITES : maxInFlightWrites;
+  }
+
+  /**
+   * @return maximum number of entities for which the metadata last written to Navigator is remembered
+   */
+  public long getPushedStateCacheSize() {
+    return pushedStateCacheSize == null ? DEFAULT_PUSHED_STATE_CACHE_SIZE : pushedStateCacheSize;
+  }
+
+  /**
+   * @return time in milliseconds after which a request to Navigator that has not completed is abandoned
+   */
+  public long getRequestTimeoutMs() {
+    return requestTimeoutMs == null ? DEFAULT_REQUEST_TIMEOUT_MS : requestTimeoutMs;
+  }
+
+  /**
+   * @return maximum number of concurrent connections to Navigator of a single program instance
+   */
+  public int getMaxConnections() {
+    return maxConnections == null ? DEFAULT_MAX_CONNECTIONS : maxConnections;
+  }
+
+  /**
+   * @return maximum number of retries of a failed write to Navigator
+   */
+  public int getMaxRetries() {
+    return maxRetries == null ? DEFAULT_MAX_RETRIES : maxRetries;
+  }
+
+  /**
+   * @return upper bound in milliseconds of the delay before the first retry of a failed write
+   */
+  public long getRetryBaseDelayMs() {
+    return retryBaseDelayMs == null ? DEFAULT_RETRY_BASE_DELAY_MS : retryBaseDelayMs;
+  }
+
+  /**
+   * @return upper bound in milliseconds of the delay before any retry of a failed write
+   */
+  public long getRetryMaxDelayMs() {
+    return retryMaxDelayMs == null ? DEFAULT_RETRY_MAX_DELAY_MS : retryMaxDelayMs;
+  }
+
+  /**
+   * @return share of failed writes at which writes to Navigator are suspended
+   */
+  public double getCircuitBreakerFailureRate() {
+    return circuitBreakerFailureRate == null ? DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE : circuitBreakerFailureRate;
+  }
+
+  /**
+   * @return number of most recent writes considered for the failure rate
+   */
+  public int getCircuitBreakerWindow() {
+    return circuitBreakerWindow == null ? DEFAULT_CIRCUIT_BREAKER_WINDOW : circuitBreakerWindow;
+  }
+
+  /**
+   * @return time in milliseconds for which writes to Navigator are suspended
+   */
+  public long getCircuitBreakerOpenMs() {
+    return circuitBreakerOpenMs == null ? DEFAULT_CIRCUIT_BREAKER_OPEN_MS : circuitBreakerOpenMs;
+  }
+
+  /**
+   * @return name of the Table dataset in which entities rejected by Navigator are stored
+   */
+  public String getDeadLetterDataset() {
+    return Strings.isNullOrEmpty(deadLetterDataset) ? DEFAULT_DEAD_LETTER_DATASET : deadLetterDataset;
+  }
+
+  /**
+   * @return maximum number of entities sent to Navigator in a single write during a resync
+   */
+  public int getResyncBatchSize() {
+    return resyncBatchSize == null ? DEFAULT_RESYNC_BATCH_SIZE : resyncBatchSize;
+  }
+
+  /**
+   * @return maximum number of concurrent writes to Navigator during a resync
+   */
+  public int getResyncMaxInFlightWrites() {
+    return resyncMaxInFlightWrites == null ? DEFAULT_RESYNC_MAX_IN_FLIGHT_WRITES : resyncMaxInFlightWrites;
+  }
+
+  /**
+   * @return maximum number of entities whose changes a resync holds in memory before writing them to Navigator
+   */
+  public int getResyncChunkSize() {
+    return resyncChunkSize == null ? DEFAULT_RESYNC_CHUNK_SIZE : resyncChunkSize;
+  }
+
+  /**
+   * @return maximum number of search results cached by the NavigatorQuery service, {@code 0} disables the cache
+   */
+  public int getSearchCacheSize() {
+    return searchCacheSize == null ? DEFAULT_SEARCH_CACHE_SIZE : searchCacheSize;
+  }
+
+  /**
+   * @return time in milliseconds for which a cached search result is served by the NavigatorQuery service
+   */
+  public long getSearchCacheTtlMs() {
+    return searchCacheTtlMs == null ? DEFAULT_SEARCH_CACHE_TTL_MS : searchCacheTtlMs;
+  }
+
+  /**
+   * @return name of the Table dataset in which metadata changes are kept while Navigator is unreachable
+   */
+  public String getSpillDataset() {
+    return Strings.isNullOrEmpty(spillDataset) ? DEFAULT_SPILL_DATASET : spillDataset;
+  }
+
+  /**
+   * @return maximum number of entities per publisher instance whose changes are kept while Navigator is unreachable,
+   * {@code 0} disables spilling
+   */
+  public long getSpillMaxEntities() {
+    return spillMaxEntities == null ? DEFAULT_SPILL_MAX_ENTITIES : spillMaxEntities;
+  }
+
+  /**
+   * @return maximum number of spilled entities written to Navigator along with each batch of audit messages
+   */
+  public int getSpillDrainBatchSize() {
+    return spillDrainBatchSize == null ? DEFAULT_SPILL_DRAIN_BATCH_SIZE : spillDrainBatchSize;
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
@@ -135,6 +347,27 @@ public class NavigatorConfig {
       .add("navigatorURL", navigatorURL)
       .add("metadataParentURI", metadataParentURI)
       .add("apiVersion", API_VERSION)
+      .add("batchSize", batchSize)
+      .add("batchSizeBytes", batchSizeBytes)
+      .add("maxInFlightWrites", maxInFlightWrites)
+      .add("pushedStateCacheSize", pushedStateCacheSize)
+      .add("requestTimeoutMs", requestTimeoutMs)
+      .add("maxConnections", maxConnections)
+      .add("maxRetries", maxRetries)
+      .add("retryBaseDelayMs", retryBaseDelayMs)
+      .add("retryMaxDelayMs", retryMaxDelayMs)
+      .add("circuitBreakerFailureRate", circuitBreakerFailureRate)
+      .add("circuitBreakerWindow", circuitBreakerWindow)
+      .add("circuitBreakerOpenMs", circuitBreakerOpenMs)
+      .add("deadLetterDataset", deadLetterDataset)
+      .add("resyncBatchSize", resyncBatchSize)
+      .add("resyncMaxInFlightWrites", resyncMaxInFlightWrites)
+      .add("resyncChunkSize", resyncChunkSize)
+      .add("searchCacheSize", searchCacheSize)
+      .add("searchCacheTtlMs", searchCacheTtlMs)
+      .add("spillDataset", spillDataset)
+      .add("spillMaxEntities", spillMaxEntities)
+      .add("spillDrainBatchSize", spillDrainBatchSize)
       .toString();
   }
 }
@@ -17,7 +17,6 @@
 package co.cask.cdap.metadata.entity;
 
 import com.cloudera.nav.sdk.client.NavigatorPlugin;
-import com.cloudera.nav.sdk.client.writer.ResultSet;
 import com.cloudera.nav.sdk.model.entities.Entity;
 
 /**
@@ -25,8 +24,11 @@ import com.cloudera.nav.sdk.model.entities.Entity;
  */
 public class NavigatorClientWriteException extends Exception {
 
-  public NavigatorClientWriteException(Entity entity, ResultSet resultSet) {
-    super(String.format("Error while trying to write metadata of %s of type %s to Navigator : %s", entity.getName(),
-                        entity.getEntityType(), resultSet.toString()));
+  public NavigatorClientWriteException(String message) {
+    super(message);
+  }
+
+  public NavigatorClientWriteException(String message, Throwable cause) {
+    super(message, cause);
   }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.audit.AuditMessage;
+import co.cask.cdap.proto.audit.AuditPayload;
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.audit.payload.metadata.MetadataPayload;
+import co.cask.cdap.proto.codec.AuditMessageTypeAdapter;
+import co.cask.cdap.proto.codec.EntityIdTypeAdapter;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.id.StreamId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link AuditMessageDecoder}.
+ */
+public class AuditMessageDecoderTest {
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(AuditMessage.class, new AuditMessageTypeAdapter())
+    .registerTypeAdapter(EntityId.class, new EntityIdTypeAdapter())
+    .create();
+  private static final StreamId STREAM = NamespaceId.DEFAULT.stream("purchases");
+
+  @Test
+  public void testMetadataChange() {
+    Map<MetadataScope, Metadata> previous =
+      ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "alice"), ImmutableSet.of("old")));
+    Map<MetadataScope, Metadata> additions =
+      ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "bob"), ImmutableSet.of("new")));
+    Map<MetadataScope, Metadata> deletions =
+      ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "alice"), ImmutableSet.of("old")));
+    AuditMessage message = new AuditMessage(1000L, STREAM, "user", AuditType.METADATA_CHANGE,
+                                            new MetadataPayload(previous, additions, deletions));
+    byte[] serialized = GSON.toJson(message).getBytes(StandardCharsets.UTF_8);
+
+    AuditMessageDecoder.Header header = AuditMessageDecoder.decodeHeader(serialized);
+    Assert.assertEquals(AuditType.METADATA_CHANGE, header.getType());
+    Assert.assertEquals(STREAM, header.getEntityId());
+
+    AuditRecord record = AuditMessageDecoder.decode(serialized);
+    Assert.assertEquals(new AuditRecord(AuditType.METADATA_CHANGE, STREAM, 1000L, additions, deletions), record);
+  }
+
+  @Test
+  public void testPayloadBeforeType() {
+    Map<MetadataScope, Metadata> additions =
+      ImmutableMap.of(MetadataScope.SYSTEM, new Metadata(ImmutableSet.of("stream")));
+    Map<MetadataScope, Metadata> none = Collections.emptyMap();
+    JsonObject json = new JsonObject();
+    json.add("payload", GSON.toJsonTree(new MetadataPayload(none, additions, none)));
+    json.add("entityId", GSON.toJsonTree(STREAM, EntityId.class));
+    json.addProperty("type", AuditType.METADATA_CHANGE.name());
+    json.addProperty("time", 2000L);
+
+    AuditRecord record = AuditMessageDecoder.decode(json.toString().getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(new AuditRecord(AuditType.METADATA_CHANGE, STREAM, 2000L, additions, none), record);
+  }
+
+  @Test
+  public void testOtherAuditType() {
+    AuditMessage message = new AuditMessage(3000L, STREAM, "user", AuditType.CREATE, AuditPayload.EMPTY_PAYLOAD);
+    AuditRecord record = AuditMessageDecoder.decode(GSON.toJson(message).getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(AuditType.CREATE, record.getType());
+    Assert.assertTrue(record.getAdditions().isEmpty());
+    Assert.assertTrue(record.getDeletions().isEmpty());
+  }
+
+  @Test
+  public void testUnknownAuditType() {
+    JsonObject json = new JsonObject();
+    json.addProperty("type", "SOME_FUTURE_TYPE");
+    json.add("entityId", GSON.toJsonTree(STREAM, EntityId.class));
+    json.addProperty("time", 4000L);
+
+    // Messages of types added by newer CDAP versions are recognized rather than treated as malformed
+    byte[] serialized = json.toString().getBytes(StandardCharsets.UTF_8);
+    AuditMessageDecoder.Header header = AuditMessageDecoder.decodeHeader(serialized);
+    Assert.assertNull(header.getType());
+    Assert.assertEquals(STREAM, header.getEntityId());
+    Assert.assertFalse(NavigatorPublisher.SUPPORTED_AUDIT_TYPES.contains(header.getType()));
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void testMalformed() {
+    AuditMessageDecoder.decodeHeader("{\"time\": 1}".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testMalformedTime() {
+    JsonObject json = new JsonObject();
+    json.addProperty("type", AuditType.METADATA_CHANGE.name());
+    json.add("entityId", GSON.toJsonTree(STREAM, EntityId.class));
+    json.addProperty("time", "yesterday");
+    byte[] serialized = json.toString().getBytes(StandardCharsets.UTF_8);
+
+    try {
+      AuditMessageDecoder.decodeHeader(serialized);
+      Assert.fail("Expected a JsonParseException");
+    } catch (JsonParseException e) {
+      // expected
+    }
+    try {
+      AuditMessageDecoder.decode(serialized);
+      Assert.fail("Expected a JsonParseException");
+    } catch (JsonParseException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void testMalformedMetadata() {
+    JsonObject payload = new JsonObject();
+    payload.addProperty("additions", "not metadata");
+    JsonObject json = new JsonObject();
+    json.addProperty("type", AuditType.METADATA_CHANGE.name());
+    json.add("entityId", GSON.toJsonTree(STREAM, EntityId.class));
+    json.add("payload", payload);
+
+    // The header of the message is valid, but its payload is not
+    AuditMessageDecoder.decode(json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
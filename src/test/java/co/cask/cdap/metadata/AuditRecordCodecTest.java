@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.audit.AuditMessage;
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.audit.payload.metadata.MetadataPayload;
+import co.cask.cdap.proto.codec.AuditMessageTypeAdapter;
+import co.cask.cdap.proto.codec.EntityIdTypeAdapter;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.id.ProgramId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link AuditRecordCodec}.
+ */
+public class AuditRecordCodecTest {
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(AuditMessage.class, new AuditMessageTypeAdapter())
+    .registerTypeAdapter(EntityId.class, new EntityIdTypeAdapter())
+    .create();
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    ProgramId program = NamespaceId.DEFAULT.app("PurchaseHistory").flow("PurchaseFlow");
+    Map<MetadataScope, Metadata> additions = ImmutableMap.of(
+      MetadataScope.SYSTEM, new Metadata(ImmutableMap.of("schedule", "daily"), ImmutableSet.of("flow", "realtime")),
+      MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "équipe"), ImmutableSet.<String>of()));
+    Map<MetadataScope, Metadata> deletions = ImmutableMap.of(
+      MetadataScope.USER, new Metadata(ImmutableSet.of("deprecated")));
+    AuditRecord record = new AuditRecord(AuditType.METADATA_CHANGE, program, 1234L, additions, deletions);
+
+    byte[] encoded = AuditRecordCodec.encode(record);
+    Assert.assertEquals(record, AuditRecordCodec.decode(encoded));
+
+    // The encoded record is much smaller than the audit message it was decoded from
+    Map<MetadataScope, Metadata> none = Collections.emptyMap();
+    AuditMessage message = new AuditMessage(1234L, program, "user", AuditType.METADATA_CHANGE,
+                                            new MetadataPayload(none, additions, deletions));
+    Assert.assertTrue(encoded.length < GSON.toJson(message).getBytes(StandardCharsets.UTF_8).length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalid() throws IOException {
+    AuditRecordCodec.decode(new byte[] { 42 });
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import com.google.common.base.Ticker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+  @Test
+  public void testOpenAndClose() {
+    ManualTicker ticker = new ManualTicker();
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 1000L, ticker);
+
+    // Failures below the threshold keep the circuit closed
+    breaker.recordSuccess();
+    breaker.recordSuccess();
+    breaker.recordSuccess();
+    breaker.recordFailure();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    Assert.assertFalse(breaker.isOpen());
+    breaker.recordFailure();
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertTrue(breaker.isOpen());
+    Assert.assertFalse(breaker.allowRequest());
+
+    // A single trial is permitted once the open time elapsed
+    ticker.advance(1000L);
+    Assert.assertFalse(breaker.isOpen());
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertFalse(breaker.allowRequest());
+    breaker.recordFailure();
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allowRequest());
+
+    ticker.advance(1000L);
+    Assert.assertTrue(breaker.allowRequest());
+    breaker.recordSuccess();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowRequest());
+  }
+
+  private static final class ManualTicker extends Ticker {
+    private long nanos;
+
+    void advance(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+  }
+}
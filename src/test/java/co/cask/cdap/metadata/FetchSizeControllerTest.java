@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FetchSizeController}.
+ */
+public class FetchSizeControllerTest {
+
+  @Test
+  public void testAdapt() {
+    FetchSizeController controller = new FetchSizeController(100, 400, 20000L);
+
+    // Full batches while lagging behind grow the limit up to the maximum
+    controller.update(100, 100L, 100L, 60000L);
+    Assert.assertEquals(200, controller.getLimit());
+    controller.update(200, 100L, 200L, 60000L);
+    Assert.assertEquals(400, controller.getLimit());
+    controller.update(400, 100L, 300L, 60000L);
+    Assert.assertEquals(400, controller.getLimit());
+
+    // Getting close to the transaction deadline shrinks the limit
+    controller.update(400, 1000L, 15000L, 60000L);
+    Assert.assertEquals(200, controller.getLimit());
+
+    // Full batches without lag do not grow the limit
+    controller.update(200, 100L, 100L, 0L);
+    Assert.assertEquals(200, controller.getLimit());
+
+    // Once caught up, the limit returns to its initial value
+    controller.update(10, 10L, 10L, 0L);
+    Assert.assertEquals(100, controller.getLimit());
+    controller.update(10, 10L, 10L, 0L);
+    Assert.assertEquals(100, controller.getLimit());
+  }
+}
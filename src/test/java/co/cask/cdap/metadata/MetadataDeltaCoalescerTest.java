@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.proto.id.DatasetId;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for {@link MetadataDeltaCoalescer}.
+ */
+public class MetadataDeltaCoalescerTest {
+  private static final DatasetId DATASET = NamespaceId.DEFAULT.dataset("users");
+  private static final Map<MetadataScope, Metadata> NONE = Collections.emptyMap();
+
+  @Test
+  public void testCoalesce() {
+    MetadataDeltaCoalescer coalescer = new MetadataDeltaCoalescer();
+    coalescer.add(DATASET, ImmutableMap.of(MetadataScope.SYSTEM, new Metadata(ImmutableSet.of("batch", "explore"))),
+                  NONE);
+    coalescer.add(DATASET, ImmutableMap.of(MetadataScope.USER,
+                                           new Metadata(ImmutableMap.of("owner", "alice"), ImmutableSet.of("pii"))),
+                  NONE);
+    // Deleting a pending tag cancels its addition and an update replaces the pending property value
+    coalescer.add(DATASET, ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableMap.of("owner", "bob"))),
+                  ImmutableMap.of(MetadataScope.USER,
+                                  new Metadata(ImmutableMap.of("owner", "alice"), ImmutableSet.of("pii"))));
+    Assert.assertEquals(1, coalescer.size());
+
+    Map<EntityId, MetadataDelta> deltas = coalescer.drain();
+    Assert.assertEquals(0, coalescer.size());
+    Assert.assertEquals(ImmutableSet.of(DATASET), deltas.keySet());
+
+    // Changes of all scopes are folded into a single delta
+    MetadataDelta delta = deltas.get(DATASET);
+    Assert.assertEquals(ImmutableSet.of("batch", "explore"), delta.getAddedTags());
+    Assert.assertEquals(ImmutableSet.of("pii"), delta.getDeletedTags());
+    Assert.assertEquals(ImmutableMap.of("owner", "bob"), delta.getAddedProperties());
+    Assert.assertTrue(delta.getDeletedProperties().isEmpty());
+  }
+
+  @Test
+  public void testCrossScopeChange() {
+    MetadataDeltaCoalescer coalescer = new MetadataDeltaCoalescer();
+    // A tag removed from one scope and added to another in the same change must remain in Navigator
+    coalescer.add(DATASET, ImmutableMap.of(MetadataScope.SYSTEM, new Metadata(ImmutableSet.of("shared"))),
+                  ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableSet.of("shared"))));
+
+    MetadataDelta delta = coalescer.drain().get(DATASET);
+    Assert.assertEquals(ImmutableSet.of("shared"), delta.getAddedTags());
+    Assert.assertTrue(delta.getDeletedTags().isEmpty());
+  }
+
+  @Test
+  public void testDeleteThenAdd() {
+    MetadataDeltaCoalescer coalescer = new MetadataDeltaCoalescer();
+    coalescer.add(DATASET, NONE, ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableSet.of("stale"))));
+    coalescer.add(DATASET, ImmutableMap.of(MetadataScope.USER, new Metadata(ImmutableSet.of("stale"))), NONE);
+
+    MetadataDelta delta = coalescer.drain().get(DATASET);
+    Assert.assertEquals(ImmutableSet.of("stale"), delta.getAddedTags());
+    Assert.assertTrue(delta.getDeletedTags().isEmpty());
+  }
+
+  @Test
+  public void testDeleted() {
+    MetadataDeltaCoalescer coalescer = new MetadataDeltaCoalescer();
+    coalescer.setDeleted(DATASET, true);
+    MetadataDelta delta = coalescer.drain().get(DATASET);
+    Assert.assertEquals(ImmutableMap.of(NavigatorEntities.DELETED_PROPERTY, "true"), delta.getAddedProperties());
+
+    // Recreating the entity after it was deleted clears the flag
+    coalescer.setDeleted(DATASET, true);
+    coalescer.setDeleted(DATASET, false);
+    delta = coalescer.drain().get(DATASET);
+    Assert.assertTrue(delta.getAddedProperties().isEmpty());
+    Assert.assertEquals(ImmutableSet.of(NavigatorEntities.DELETED_PROPERTY), delta.getDeletedProperties());
+  }
+}
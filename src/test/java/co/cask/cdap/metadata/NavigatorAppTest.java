@@ -20,11 +20,20 @@ import co.cask.cdap.metadata.config.AuditLogConfig;
 import co.cask.cdap.metadata.config.NavigatorAppConfig;
 import co.cask.cdap.metadata.config.NavigatorConfig;
 import co.cask.cdap.test.ApplicationManager;
+import co.cask.cdap.test.ServiceManager;
 import co.cask.cdap.test.TestBase;
 import co.cask.cdap.test.TestConfiguration;
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Test for {@link NavigatorApp}.
  */
@@ -42,4 +51,64 @@ public class NavigatorAppTest extends TestBase {
     ApplicationManager appManager = deployApplication(NavigatorApp.class, appConfig);
     appManager.stopAll();
   }
+
+  @Test
+  public void testWorkerMode() throws Exception {
+    NavigatorConfig navigatorConfig = new NavigatorConfig("naviclus.dev.continuuity.net", "user", "pass");
+    AuditLogConfig auditLogConfig = new AuditLogConfig();
+    NavigatorAppConfig appConfig = new NavigatorAppConfig(navigatorConfig, auditLogConfig, null, "worker", 2, 100);
+    ApplicationManager appManager = deployApplication(NavigatorApp.class, appConfig);
+    appManager.stopAll();
+  }
+
+  @Test
+  public void testSeekOffset() throws Exception {
+    NavigatorConfig navigatorConfig = new NavigatorConfig("naviclus.dev.continuuity.net", "user", "pass");
+    NavigatorAppConfig appConfig = new NavigatorAppConfig(navigatorConfig, new AuditLogConfig());
+    ApplicationManager appManager = deployApplication(NavigatorApp.class, appConfig);
+    ServiceManager serviceManager = appManager.getServiceManager("NavigatorQuery").start();
+    try {
+      serviceManager.waitForStatus(true);
+      URL serviceURL = serviceManager.getServiceURL(15, TimeUnit.SECONDS);
+
+      // Message ids that are not hex encoded are rejected instead of breaking the consumer later
+      Assert.assertEquals(400, post(new URL(serviceURL, "offset/seek?messageId=not-a-message-id")));
+      Assert.assertEquals(400, post(new URL(serviceURL, "offset/seek?messageId=abc")));
+      Assert.assertEquals(400, post(new URL(serviceURL, "offset/seek?timestamp=-1")));
+      Assert.assertEquals(400, post(new URL(serviceURL, "offset/seek")));
+      // Gson omits the null offset
+      Assert.assertEquals("{}", get(new URL(serviceURL, "offset")));
+
+      // Seeking to a timestamp stores it with its prefix, which the consumers fetch by publish time
+      Assert.assertEquals(200, post(new URL(serviceURL, "offset/seek?timestamp=1500000000000")));
+      Assert.assertEquals("{\"offset\":\"ts:1500000000000\"}", get(new URL(serviceURL, "offset")));
+
+      Assert.assertEquals(200, post(new URL(serviceURL, "offset/seek?messageId=0a1b2c3d")));
+      Assert.assertEquals("{\"offset\":\"0a1b2c3d\"}", get(new URL(serviceURL, "offset")));
+    } finally {
+      appManager.stopAll();
+    }
+  }
+
+  private int post(URL url) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      connection.setRequestMethod("POST");
+      return connection.getResponseCode();
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private String get(URL url) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      Assert.assertEquals(200, connection.getResponseCode());
+      try (InputStream input = connection.getInputStream()) {
+        return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import co.cask.cdap.metadata.entity.NavigatorClientWriteException;
+import co.cask.cdap.proto.id.NamespaceId;
+import com.cloudera.nav.sdk.client.NavigatorPlugin;
+import com.cloudera.nav.sdk.model.entities.Entity;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link NavigatorBatchWriter}.
+ */
+public class NavigatorBatchWriterTest {
+  private static final RetryPolicy RETRY_POLICY = new RetryPolicy(3, 1L, 1L);
+
+  @Test
+  public void testErrorClassification() {
+    Assert.assertTrue(NavigatorBatchWriter.isTransient(
+      new RuntimeException(new IOException("Server returned HTTP response code: 503"))));
+    Assert.assertTrue(NavigatorBatchWriter.isTransient(new RuntimeException(new SocketTimeoutException())));
+    Assert.assertTrue(NavigatorBatchWriter.isTransient(new UncheckedTimeoutException()));
+    // The message of an error does not matter
+    Assert.assertFalse(NavigatorBatchWriter.isTransient(new IllegalArgumentException("503 Service Unavailable")));
+    Assert.assertFalse(NavigatorBatchWriter.isTransient(new RuntimeException("Read timed out")));
+  }
+
+  @Test
+  public void testSplitPermanentRejections() throws Exception {
+    List<Entity> entities = createEntities(8);
+    final Entity invalid = entities.get(5);
+    final AtomicInteger requests = new AtomicInteger();
+    NavigatorBatchWriter.EntityWriter entityWriter = new NavigatorBatchWriter.EntityWriter() {
+      @Nullable
+      @Override
+      public String write(List<Entity> batch) {
+        requests.incrementAndGet();
+        return batch.contains(invalid) ? "Invalid entity" : null;
+      }
+    };
+
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60000L);
+    try (NavigatorBatchWriter writer = createWriter(entityWriter, breaker)) {
+      for (Entity entity : entities) {
+        writer.add(entity, 0L);
+      }
+      List<RejectedWrite> rejected = writer.flush();
+      Assert.assertEquals(1, rejected.size());
+      Assert.assertSame(invalid, rejected.get(0).getEntity());
+      Assert.assertEquals("Invalid entity", rejected.get(0).getErrors());
+    }
+    // The batch of 8 is split into halves until the invalid entity is isolated: 1 + 2 + 2 + 2 requests
+    Assert.assertEquals(7, requests.get());
+    // Permanent rejections are not failures of Navigator
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testPermanentErrorsMentioningStatus() throws Exception {
+    final Entity invalid = NavigatorEntities.create(NamespaceId.DEFAULT.dataset("dataset500"), "cdap");
+    final AtomicInteger requests = new AtomicInteger();
+    NavigatorBatchWriter.EntityWriter entityWriter = new NavigatorBatchWriter.EntityWriter() {
+      @Nullable
+      @Override
+      public String write(List<Entity> batch) {
+        requests.incrementAndGet();
+        // An error of a processed request is a rejection, whatever the error says
+        return batch.contains(invalid) ? "Invalid entity dataset500: 503 Service Unavailable" : null;
+      }
+    };
+
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60000L);
+    try (NavigatorBatchWriter writer = createWriter(entityWriter, breaker)) {
+      writer.add(invalid, 0L);
+      List<RejectedWrite> rejected = writer.flush();
+      Assert.assertEquals(1, rejected.size());
+      Assert.assertSame(invalid, rejected.get(0).getEntity());
+    }
+    Assert.assertEquals(1, requests.get());
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testSplitFailedRequests() throws Exception {
+    List<Entity> entities = createEntities(4);
+    final Entity invalid = entities.get(2);
+    NavigatorBatchWriter.EntityWriter entityWriter = new NavigatorBatchWriter.EntityWriter() {
+      @Nullable
+      @Override
+      public String write(List<Entity> batch) {
+        if (batch.contains(invalid)) {
+          // The SDK fails to serialize the entity before sending the request
+          throw new IllegalArgumentException("Invalid entity");
+        }
+        return null;
+      }
+    };
+
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60000L);
+    try (NavigatorBatchWriter writer = createWriter(entityWriter, breaker)) {
+      for (Entity entity : entities) {
+        writer.add(entity, 0L);
+      }
+      List<RejectedWrite> rejected = writer.flush();
+      Assert.assertEquals(1, rejected.size());
+      Assert.assertSame(invalid, rejected.get(0).getEntity());
+    }
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testRetryTransientErrors() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    NavigatorBatchWriter.EntityWriter entityWriter = new NavigatorBatchWriter.EntityWriter() {
+      @Nullable
+      @Override
+      public String write(List<Entity> batch) {
+        int request = requests.incrementAndGet();
+        if (request == 1) {
+          throw new RuntimeException(new SocketException("Connection reset"));
+        }
+        if (request == 2) {
+          throw new UncheckedTimeoutException("Request to Navigator did not complete within 100 ms");
+        }
+        return null;
+      }
+    };
+
+    try (NavigatorBatchWriter writer = createWriter(entityWriter, new CircuitBreaker(1.0, 10, 60000L))) {
+      for (Entity entity : createEntities(4)) {
+        writer.add(entity, 0L);
+      }
+      // The whole batch is retried rather than split
+      Assert.assertTrue(writer.flush().isEmpty());
+    }
+    Assert.assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testRetriesExhausted() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    NavigatorBatchWriter.EntityWriter entityWriter = new NavigatorBatchWriter.EntityWriter() {
+      @Nullable
+      @Override
+      public String write(List<Entity> batch) {
+        requests.incrementAndGet();
+        throw new RuntimeException(new IOException("Server returned HTTP response code: 503"));
+      }
+    };
+
+    try (NavigatorBatchWriter writer = createWriter(entityWriter, new CircuitBreaker(1.0, 10, 60000L))) {
+      writer.add(createEntities(1).get(0), 0L);
+      try {
+        writer.flush();
+        Assert.fail("Expected the write to fail after the retries are exhausted");
+      } catch (NavigatorClientWriteException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(1 + 3, requests.get());
+  }
+
+  @Test
+  public void testCircuitBreaker() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    NavigatorBatchWriter.EntityWriter entityWriter = new NavigatorBatchWriter.EntityWriter() {
+      @Nullable
+      @Override
+      public String write(List<Entity> batch) {
+        requests.incrementAndGet();
+        throw new RuntimeException(new IOException("Server returned HTTP response code: 503"));
+      }
+    };
+
+    CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 60000L);
+    try (NavigatorBatchWriter writer = createWriter(entityWriter, breaker)) {
+      writer.add(createEntities(1).get(0), 0L);
+      try {
+        writer.flush();
+        Assert.fail("Expected the write to fail while the circuit is open");
+      } catch (NavigatorClientWriteException e) {
+        // expected
+      }
+      // Transient errors count as failures, and no requests are made once the circuit opened
+      Assert.assertEquals(2, requests.get());
+      Assert.assertEquals(CircuitBreaker.State.OPEN, writer.getCircuitState());
+      Assert.assertTrue(writer.isCircuitOpen());
+    }
+  }
+
+  @Test
+  public void testRetryServerErrors() throws Exception {
+    NavigatorStubServer server = new NavigatorStubServer();
+    server.start();
+    try {
+      server.setErrorRate(0.5);
+      NavigatorConfig navigatorConfig = new NavigatorConfig("localhost", "user", "pass", server.getPort(), true,
+                                                            null, null, null, null, null);
+      NavigatorPlugin navigatorPlugin =
+        NavigatorPlugin.fromConfigMap(NavigatorConfigConverter.convert(navigatorConfig));
+      List<Entity> entities = createEntities(20);
+      try (NavigatorRequestExecutor requestExecutor = new NavigatorRequestExecutor(navigatorConfig);
+           NavigatorBatchWriter writer = new NavigatorBatchWriter(navigatorPlugin, requestExecutor, 1, Long.MAX_VALUE,
+                                                                  1, new RetryPolicy(30, 1L, 1L),
+                                                                  new CircuitBreaker(1.0, 100, 60000L),
+                                                                  new NoopMetrics())) {
+        for (Entity entity : entities) {
+          writer.add(entity, 0L);
+        }
+        Assert.assertTrue(writer.flush().isEmpty());
+      }
+      // Every failed request was retried until all entities were written
+      Assert.assertTrue(server.getFailureCount() > 0);
+      Assert.assertEquals(entities.size(), server.getRequestCount() - server.getFailureCount());
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testRequestTimeout() throws Exception {
+    NavigatorStubServer server = new NavigatorStubServer();
+    server.start();
+    try {
+      // Navigator hangs for longer than the test is allowed to take
+      server.setLatency(30000L, 30000L);
+      NavigatorConfig navigatorConfig = new NavigatorConfig("localhost", "user", "pass", server.getPort(), true,
+                                                            null, null, null, null, null);
+      NavigatorPlugin navigatorPlugin =
+        NavigatorPlugin.fromConfigMap(NavigatorConfigConverter.convert(navigatorConfig));
+      long startMillis = System.currentTimeMillis();
+      try (NavigatorRequestExecutor requestExecutor = new NavigatorRequestExecutor(2, 200L);
+           NavigatorBatchWriter writer = new NavigatorBatchWriter(navigatorPlugin, requestExecutor, 100,
+                                                                  Long.MAX_VALUE, 1, new RetryPolicy(5, 1L, 1L),
+                                                                  new CircuitBreaker(1.0, 2, 60000L),
+                                                                  new NoopMetrics())) {
+        for (Entity entity : createEntities(10)) {
+          writer.add(entity, 0L);
+        }
+        try {
+          writer.flush();
+          Assert.fail("Expected the flush to fail");
+        } catch (NavigatorClientWriteException e) {
+          // expected
+        }
+        // Abandoned requests count as failures, so the circuit opens instead of the flush waiting for Navigator
+        Assert.assertEquals(CircuitBreaker.State.OPEN, writer.getCircuitState());
+      }
+      Assert.assertTrue(System.currentTimeMillis() - startMillis < 10000L);
+    } finally {
+      server.stop();
+    }
+  }
+
+  private NavigatorBatchWriter createWriter(NavigatorBatchWriter.EntityWriter entityWriter, CircuitBreaker breaker) {
+    return new NavigatorBatchWriter(entityWriter, 100, Long.MAX_VALUE, 1, RETRY_POLICY, breaker, new NoopMetrics());
+  }
+
+  private List<Entity> createEntities(int count) throws Exception {
+    List<Entity> entities = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      entities.add(NavigatorEntities.create(NamespaceId.DEFAULT.dataset("dataset" + i), "cdap"));
+    }
+    return Collections.unmodifiableList(entities);
+  }
+
+  private static final class NoopMetrics implements Metrics {
+    @Override
+    public void count(String metricName, int delta) {
+      // no-op
+    }
+
+    @Override
+    public void gauge(String metricName, long value) {
+      // no-op
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.messaging.MessagePublisher;
+import co.cask.cdap.metadata.config.AuditLogConfig;
+import co.cask.cdap.metadata.config.NavigatorAppConfig;
+import co.cask.cdap.metadata.config.NavigatorConfig;
+import co.cask.cdap.proto.ProgramRunStatus;
+import co.cask.cdap.proto.audit.AuditMessage;
+import co.cask.cdap.proto.audit.AuditType;
+import co.cask.cdap.proto.audit.payload.metadata.MetadataPayload;
+import co.cask.cdap.proto.codec.AuditMessageTypeAdapter;
+import co.cask.cdap.proto.codec.EntityIdTypeAdapter;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.proto.metadata.Metadata;
+import co.cask.cdap.proto.metadata.MetadataScope;
+import co.cask.cdap.test.ApplicationManager;
+import co.cask.cdap.test.FlowManager;
+import co.cask.cdap.test.TestBase;
+import co.cask.cdap.test.TestConfiguration;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test that publishes synthetic metadata change audit messages to a TMS topic and measures how fast they are
+ * propagated by the {@link MetadataFlow} to a {@link NavigatorStubServer}. It is excluded from the regular build and
+ * only runs with the {@code loadtest} Maven profile, tuned with the system properties below, e.g.
+ * <pre>
+ *   mvn -Ploadtest test -Dnavigator.loadtest.messages=100000 \
+ *     -Dnavigator.loadtest.latency.max.ms=200 -Dnavigator.loadtest.error.rate=0.01
+ * </pre>
+ */
+public class NavigatorLoadTest extends TestBase {
+  private static final Logger LOG = LoggerFactory.getLogger(NavigatorLoadTest.class);
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(AuditMessage.class, new AuditMessageTypeAdapter())
+    .registerTypeAdapter(EntityId.class, new EntityIdTypeAdapter())
+    .create();
+  private static final String TOPIC = "loadTestAudit";
+  private static final String SENT_PROPERTY = "loadtest.sent";
+  private static final int PUBLISH_BATCH_SIZE = 1000;
+
+  @ClassRule
+  public static final TestConfiguration CONFIG = new TestConfiguration("explore.enabled", false);
+
+  @Test
+  public void testThroughput() throws Exception {
+    Assume.assumeTrue(Boolean.getBoolean("navigator.loadtest"));
+    int messages = Integer.getInteger("navigator.loadtest.messages", 10000);
+    int publisherInstances = Integer.getInteger("navigator.loadtest.publishers", 1);
+    long timeoutSeconds = Long.getLong("navigator.loadtest.timeout.seconds", 600L);
+
+    NavigatorStubServer server = new NavigatorStubServer();
+    server.setLatency(Long.getLong("navigator.loadtest.latency.min.ms", 0L),
+                      Long.getLong("navigator.loadtest.latency.max.ms", 0L));
+    server.setErrorRate(Double.parseDouble(System.getProperty("navigator.loadtest.error.rate", "0")));
+    server.setTimestampProperty(SENT_PROPERTY);
+    server.start();
+    try {
+      NavigatorConfig navigatorConfig = new NavigatorConfig("localhost", "user", "pass", server.getPort(), true,
+                                                            null, null, null, null, null);
+      AuditLogConfig auditLogConfig = new AuditLogConfig(NamespaceId.DEFAULT.getNamespace(), TOPIC, null, null);
+      getMessagingAdmin(NamespaceId.DEFAULT).createTopic(TOPIC);
+      ApplicationManager appManager = deployApplication(
+        NavigatorApp.class, new NavigatorAppConfig(navigatorConfig, auditLogConfig, publisherInstances));
+      FlowManager flowManager = appManager.getFlowManager(MetadataFlow.FLOW_NAME).start();
+      flowManager.waitForRun(ProgramRunStatus.RUNNING, 2, TimeUnit.MINUTES);
+
+      long startMillis = System.currentTimeMillis();
+      publish(messages);
+      LOG.info("Published {} audit messages in {} ms", messages, System.currentTimeMillis() - startMillis);
+
+      long deadline = startMillis + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+      while (server.getLatencies().size() < messages && System.currentTimeMillis() < deadline) {
+        TimeUnit.MILLISECONDS.sleep(100);
+      }
+      long elapsedMillis = System.currentTimeMillis() - startMillis;
+      List<Long> latencies = server.getLatencies();
+      appManager.stopAll();
+
+      Collections.sort(latencies);
+      LOG.info("Propagated {} of {} messages in {} ms: {} messages/sec, p50 {} ms, p99 {} ms, max {} ms. "
+                 + "Navigator received {} requests with {} bytes, {} failed.",
+               latencies.size(), messages, elapsedMillis, latencies.size() * 1000L / Math.max(1L, elapsedMillis),
+               percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1.0),
+               server.getRequestCount(), server.getBytesReceived(), server.getFailureCount());
+      // Writes may be repeated if a transaction of the flow is retried
+      Assert.assertTrue(latencies.size() >= messages);
+    } finally {
+      server.stop();
+    }
+  }
+
+  private void publish(int messages) throws Exception {
+    MessagePublisher publisher = getMessagingContext().getDirectMessagePublisher();
+    List<byte[]> batch = new ArrayList<>(PUBLISH_BATCH_SIZE);
+    Map<MetadataScope, Metadata> none = Collections.emptyMap();
+    for (int i = 0; i < messages; i++) {
+      long now = System.currentTimeMillis();
+      // Every message changes a different entity, so that no changes are coalesced
+      Map<MetadataScope, Metadata> additions = ImmutableMap.of(
+        MetadataScope.USER, new Metadata(ImmutableMap.of(SENT_PROPERTY, Long.toString(now)),
+                                         ImmutableSet.of("loadtest")));
+      AuditMessage message = new AuditMessage(now, NamespaceId.DEFAULT.dataset("loadtest" + i), "loadtest",
+                                              AuditType.METADATA_CHANGE, new MetadataPayload(none, additions, none));
+      batch.add(GSON.toJson(message).getBytes(StandardCharsets.UTF_8));
+      if (batch.size() == PUBLISH_BATCH_SIZE || i == messages - 1) {
+        publisher.publish(NamespaceId.DEFAULT.getNamespace(), TOPIC, batch.iterator());
+        batch.clear();
+      }
+    }
+  }
+
+  private static long percentile(List<Long> sorted, double percentile) {
+    if (sorted.isEmpty()) {
+      return 0L;
+    }
+    int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+    return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package co.cask.cdap.metadata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Local HTTP server standing in for Navigator in tests and benchmarks. Writes to the metadata plugin endpoint are
+ * accepted and discarded, and entity searches return an empty result. The latency of every response and the share
+ * of requests failing with a server error can be configured to simulate a slow or unhealthy Navigator.
+ * <p>
+ * To measure propagation latency, a property carrying the time at which a change was made can be configured. The
+ * server then records the time between that timestamp and the arrival of every write that carries the property.
+ * </p>
+ */
+public class NavigatorStubServer {
+  private static final byte[] WRITE_RESPONSE = "{}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] SEARCH_RESPONSE =
+    "{\"results\":[],\"cursorMark\":\"*\"}".getBytes(StandardCharsets.UTF_8);
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+  private volatile long minLatencyMillis;
+  private volatile long maxLatencyMillis;
+  private volatile double errorRate;
+  private volatile Pattern timestampPattern;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange);
+      }
+    });
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Delays every response by a random time between the given bounds.
+   */
+  public void setLatency(long minLatencyMillis, long maxLatencyMillis) {
+    this.minLatencyMillis = minLatencyMillis;
+    this.maxLatencyMillis = Math.max(minLatencyMillis, maxLatencyMillis);
+  }
+
+  /**
+   * Fails the given share of requests, between 0 and 1, with a server error.
+   */
+  public void setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+  }
+
+  /**
+   * Records the propagation latency of writes carrying the given property, whose value is a time in milliseconds.
+   */
+  public void setTimestampProperty(@Nullable String property) {
+    timestampPattern = property == null ? null : Pattern.compile(Pattern.quote(property) + "\"\\s*:\\s*\"(\\d+)\"");
+  }
+
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public long getBytesReceived() {
+    return bytes.get();
+  }
+
+  /**
+   * @return propagation latencies in milliseconds recorded for writes carrying the timestamp property
+   */
+  public List<Long> getLatencies() {
+    return new ArrayList<>(latencies);
+  }
+
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    byte[] body = readBody(exchange);
+    bytes.addAndGet(body.length);
+
+    long delay = minLatencyMillis;
+    if (maxLatencyMillis > minLatencyMillis) {
+      delay += ThreadLocalRandom.current().nextLong(maxLatencyMillis - minLatencyMillis + 1);
+    }
+    if (delay > 0) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      failures.incrementAndGet();
+      exchange.sendResponseHeaders(503, -1);
+      exchange.close();
+      return;
+    }
+
+    boolean search = "GET".equals(exchange.getRequestMethod());
+    if (!search) {
+      recordLatencies(body);
+    }
+    byte[] response = search ? SEARCH_RESPONSE : WRITE_RESPONSE;
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, response.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(response);
+    }
+  }
+
+  private void recordLatencies(byte[] body) {
+    Pattern pattern = timestampPattern;
+    if (pattern == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Matcher matcher = pattern.matcher(new String(body, StandardCharsets.UTF_8));
+    while (matcher.find()) {
+      latencies.add(now - Long.parseLong(matcher.group(1)));
+    }
+  }
+
+  private byte[] readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    try (InputStream input = exchange.getRequestBody()) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) > 0) {
+        body.write(buffer, 0, read);
+      }
+    }
+    return body.toByteArray();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PollScheduler}.
+ */
+public class PollSchedulerTest {
+
+  @Test
+  public void testIdleTicks() {
+    // A minimum delay below the tick interval must not make an idle consumer run more transactions
+    for (long minDelayMillis : new long[] { 10L, AuditLogConsumer.TICK_DELAY_MILLIS }) {
+      PollScheduler scheduler = new PollScheduler(minDelayMillis, 5000L);
+      int ticks = 0;
+      int polls = 0;
+      for (long now = 0L; now < 60000L; now += AuditLogConsumer.TICK_DELAY_MILLIS) {
+        ticks++;
+        if (scheduler.isDue(now)) {
+          polls++;
+          scheduler.polled(now, false);
+        }
+      }
+      // One transaction per second while idle, and the polls back off to one every five seconds
+      Assert.assertEquals(60, ticks);
+      Assert.assertTrue("Too many polls: " + polls, polls <= 20);
+    }
+  }
+
+  @Test
+  public void testBackOff() {
+    PollScheduler scheduler = new PollScheduler(1000L, 4000L);
+    Assert.assertTrue(scheduler.isDue(0L));
+
+    // Empty polls double the delay up to the maximum
+    scheduler.polled(0L, false);
+    Assert.assertFalse(scheduler.isDue(999L));
+    Assert.assertTrue(scheduler.isDue(1000L));
+    scheduler.polled(1000L, false);
+    Assert.assertFalse(scheduler.isDue(2999L));
+    Assert.assertTrue(scheduler.isDue(3000L));
+    scheduler.polled(3000L, false);
+    Assert.assertTrue(scheduler.isDue(7000L));
+    scheduler.polled(7000L, false);
+    Assert.assertFalse(scheduler.isDue(10999L));
+    Assert.assertTrue(scheduler.isDue(11000L));
+
+    // Consuming messages polls again on the next tick and resets the delay
+    scheduler.polled(11000L, true);
+    Assert.assertTrue(scheduler.isDue(11000L));
+    scheduler.polled(12000L, false);
+    Assert.assertTrue(scheduler.isDue(13000L));
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PushedStateCache}.
+ */
+public class PushedStateCacheTest {
+
+  @Test
+  public void testTrim() {
+    PushedStateCache cache = new PushedStateCache(10);
+
+    MetadataDelta pushed = new MetadataDelta();
+    pushed.addTags(ImmutableSet.of("t1", "t2"));
+    pushed.addProperties(ImmutableMap.of("k1", "v1"));
+    pushed.deleteTags(ImmutableSet.of("old"));
+    Assert.assertFalse(cache.trim("e1", pushed));
+    cache.update("e1", pushed);
+
+    // Replaying the same change leaves nothing to write
+    MetadataDelta replayed = new MetadataDelta();
+    replayed.addTags(ImmutableSet.of("t1", "t2"));
+    replayed.addProperties(ImmutableMap.of("k1", "v1"));
+    replayed.deleteTags(ImmutableSet.of("old"));
+    Assert.assertTrue(cache.trim("e1", replayed));
+
+    // Only the actual changes are kept
+    MetadataDelta changed = new MetadataDelta();
+    changed.addTags(ImmutableSet.of("t1", "t3"));
+    changed.addProperties(ImmutableMap.of("k1", "v2"));
+    changed.deleteTags(ImmutableSet.of("t2"));
+    Assert.assertFalse(cache.trim("e1", changed));
+    Assert.assertEquals(ImmutableSet.of("t3"), changed.getAddedTags());
+    Assert.assertEquals(ImmutableSet.of("t2"), changed.getDeletedTags());
+    Assert.assertEquals(ImmutableMap.of("k1", "v2"), changed.getAddedProperties());
+    cache.update("e1", changed);
+
+    MetadataDelta readded = new MetadataDelta();
+    readded.addTags(ImmutableSet.of("t2"));
+    Assert.assertFalse(cache.trim("e1", readded));
+
+    // Unknown entities are never trimmed
+    MetadataDelta other = new MetadataDelta();
+    other.addTags(ImmutableSet.of("t1"));
+    Assert.assertFalse(cache.trim("e2", other));
+    Assert.assertEquals(ImmutableSet.of("t1"), other.getAddedTags());
+
+    cache.invalidate("e1");
+    Assert.assertFalse(cache.trim("e1", tagDelta("t3")));
+  }
+
+  @Test
+  public void testStats() {
+    PushedStateCache cache = new PushedStateCache(10);
+    MetadataDelta first = tagDelta("t1");
+    cache.trim("e1", first);
+    cache.update("e1", first);
+    MetadataDelta second = tagDelta("t2");
+    cache.trim("e1", second);
+    cache.update("e1", second);
+
+    // Each written entity is looked up once
+    Assert.assertEquals(1, cache.stats().missCount());
+    Assert.assertEquals(1, cache.stats().hitCount());
+  }
+
+  private MetadataDelta tagDelta(String tag) {
+    MetadataDelta delta = new MetadataDelta();
+    delta.addTags(ImmutableSet.of(tag));
+    return delta;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RetryPolicy}.
+ */
+public class RetryPolicyTest {
+
+  @Test
+  public void testRetryPolicy() {
+    RetryPolicy policy = new RetryPolicy(3, 100L, 250L);
+    Assert.assertTrue(policy.shouldRetry(2));
+    Assert.assertFalse(policy.shouldRetry(3));
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(policy.getDelayMillis(0) <= 100L);
+      Assert.assertTrue(policy.getDelayMillis(1) <= 200L);
+      Assert.assertTrue(policy.getDelayMillis(40) <= 250L);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metadata;
+
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.proto.id.DatasetId;
+import co.cask.cdap.proto.id.EntityId;
+import co.cask.cdap.proto.id.NamespaceId;
+import co.cask.cdap.test.DataSetManager;
+import co.cask.cdap.test.TestBase;
+import co.cask.cdap.test.TestConfiguration;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link SpillStore}.
+ */
+public class SpillStoreTest extends TestBase {
+
+  @ClassRule
+  public static final TestConfiguration CONFIG = new TestConfiguration("explore.enabled", false);
+
+  @Test
+  public void testChangeInstanceCount() throws Exception {
+    DatasetId spill = NamespaceId.DEFAULT.dataset("spill");
+    addDatasetInstance(Table.class.getName(), spill);
+    DataSetManager<Table> manager = getDataset(spill);
+
+    // Two publisher instances spill the changes of the entities routed to them
+    Set<EntityId> entityIds = new HashSet<>();
+    for (int i = 0; i < 20; i++) {
+      EntityId entityId = NamespaceId.DEFAULT.dataset("dataset" + i);
+      entityIds.add(entityId);
+      SpillStore spillStore = new SpillStore(manager.get(), NavigatorPublisher.getInstance(entityId, 2));
+      Assert.assertTrue(spillStore.add(entityId, createDelta("tag" + i), 100L));
+    }
+    manager.flush();
+    Assert.assertEquals(20L, new SpillStore(manager.get(), 0).size());
+
+    // After scaling to three instances, later changes are merged with the spilled ones by the instance they are
+    // routed to now
+    EntityId changed = NamespaceId.DEFAULT.dataset("dataset0");
+    SpillStore owner = new SpillStore(manager.get(), NavigatorPublisher.getInstance(changed, 3));
+    MetadataDelta removed = owner.remove(changed);
+    Assert.assertNotNull(removed);
+    Assert.assertEquals(ImmutableSet.of("tag0"), removed.getAddedTags());
+    manager.flush();
+
+    // Each instance drains the remaining entities that are routed to it
+    Set<EntityId> drained = new HashSet<>();
+    for (int instanceId = 0; instanceId < 3; instanceId++) {
+      Map<EntityId, MetadataDelta> taken = new SpillStore(manager.get(), instanceId).take(100, instanceId, 3);
+      for (EntityId entityId : taken.keySet()) {
+        Assert.assertEquals(instanceId, NavigatorPublisher.getInstance(entityId, 3));
+        Assert.assertTrue(drained.add(entityId));
+      }
+      manager.flush();
+    }
+    entityIds.remove(changed);
+    Assert.assertEquals(entityIds, drained);
+    Assert.assertEquals(0L, new SpillStore(manager.get(), 0).size());
+  }
+
+  private MetadataDelta createDelta(String tag) {
+    MetadataDelta delta = new MetadataDelta();
+    delta.addTags(Collections.singleton(tag));
+    return delta;
+  }
+}